@@ -5,6 +5,7 @@ import com.nukkitx.protocol.MinecraftInterface;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.EventLoopGroup;
 
+import javax.annotation.Nullable;
 import java.net.InetSocketAddress;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ScheduledFuture;
@@ -14,11 +15,22 @@ public abstract class Bedrock implements MinecraftInterface {
     final EventLoopGroup bossGroup;
     final EventLoopGroup workerGroup;
     final ScheduledFuture<?> tickFuture;
+    final BedrockTicker ticker;
 
     Bedrock(EventLoopGroup bossGroup, EventLoopGroup workerGroup) {
+        this(bossGroup, workerGroup, null);
+    }
+
+    Bedrock(EventLoopGroup bossGroup, EventLoopGroup workerGroup, @Nullable BedrockTicker ticker) {
         this.bossGroup = bossGroup;
         this.workerGroup = workerGroup;
-        this.tickFuture = workerGroup.scheduleAtFixedRate(this::onTick, 50, 50, TimeUnit.MILLISECONDS);
+        this.ticker = ticker;
+        if (ticker == null) {
+            this.tickFuture = workerGroup.scheduleAtFixedRate(this::onTick, 50, 50, TimeUnit.MILLISECONDS);
+        } else {
+            this.tickFuture = null;
+            ticker.add(this);
+        }
     }
 
     protected abstract void onTick();
@@ -42,4 +54,12 @@ public abstract class Bedrock implements MinecraftInterface {
     }
 
     public abstract void close(boolean force);
+
+    void stopTicking() {
+        if (this.tickFuture != null) {
+            this.tickFuture.cancel(false);
+        } else {
+            this.ticker.remove(this);
+        }
+    }
 }
@@ -7,6 +7,7 @@ import com.nukkitx.protocol.bedrock.wrapper.BedrockWrapperSerializer;
 import com.nukkitx.protocol.bedrock.wrapper.BedrockWrapperSerializers;
 import io.netty.channel.EventLoopGroup;
 
+import javax.annotation.Nullable;
 import java.net.Inet4Address;
 import java.net.Inet6Address;
 import java.net.InetSocketAddress;
@@ -26,7 +27,15 @@ public class BedrockClient extends Bedrock {
     }
 
     public BedrockClient(InetSocketAddress bindAddress, EventLoopGroup bossGroup, EventLoopGroup workerGroup) {
-        super(bossGroup, workerGroup);
+        this(bindAddress, bossGroup, workerGroup, null);
+    }
+
+    /**
+     * @param ticker shared ticker to tick this client with or null to schedule its own tick
+     */
+    public BedrockClient(InetSocketAddress bindAddress, EventLoopGroup bossGroup, EventLoopGroup workerGroup,
+                         @Nullable BedrockTicker ticker) {
+        super(bossGroup, workerGroup, ticker);
         this.rakNetClient = new RakNetClient(bindAddress, bossGroup);
     }
 
@@ -52,7 +61,7 @@ public class BedrockClient extends Bedrock {
             this.session.disconnect();
         }
         this.rakNetClient.close(force);
-        this.tickFuture.cancel(false);
+        this.stopTicking();
     }
 
     public CompletableFuture<BedrockClientSession> connect(InetSocketAddress address) {
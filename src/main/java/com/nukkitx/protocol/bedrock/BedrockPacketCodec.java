@@ -1,6 +1,7 @@
 package com.nukkitx.protocol.bedrock;
 
 import com.nukkitx.protocol.bedrock.exception.PacketSerializeException;
+import com.nukkitx.protocol.bedrock.handler.BedrockPacketHandler;
 import com.nukkitx.protocol.bedrock.packet.UnknownPacket;
 import io.netty.buffer.ByteBuf;
 import io.netty.util.ReferenceCountUtil;
@@ -19,8 +20,11 @@ import javax.annotation.concurrent.Immutable;
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.BitSet;
 import java.util.IdentityHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Supplier;
 
 import static com.nukkitx.network.util.Preconditions.*;
@@ -40,6 +44,7 @@ public final class BedrockPacketCodec {
     private final BedrockPacketHelper helper;
     @Getter
     private final int raknetProtocolVersion;
+    private final Map<Class<?>, BitSet> handledPackets = new ConcurrentHashMap<>();
 
     public static Builder builder() {
         return new Builder();
@@ -103,6 +108,23 @@ public final class BedrockPacketCodec {
         return null;
     }
 
+    /**
+     * Get how a packet is queued and compressed. Unknown packets use the delivery of the packet registered with their
+     * ID.
+     *
+     * @param packet packet to send
+     * @return delivery of the packet type or {@link PacketDelivery#DEFAULT} if it has none
+     */
+    public PacketDelivery getDelivery(BedrockPacket packet) {
+        BedrockPacketDefinition<?> definition;
+        if (packet instanceof UnknownPacket) {
+            definition = this.getPacketDefinition(packet.getPacketId());
+        } else {
+            definition = this.packetsByClass.get(packet.getClass());
+        }
+        return definition == null ? PacketDelivery.DEFAULT : definition.getDelivery();
+    }
+
     public int getId(BedrockPacket packet) {
         if (packet instanceof UnknownPacket) {
             return packet.getPacketId();
@@ -118,6 +140,38 @@ public final class BedrockPacketCodec {
         return definition.getId();
     }
 
+    /**
+     * Get the IDs of the packets a handler implementation handles, which are the packets it overrides the
+     * {@code handle} method of {@link BedrockPacketHandler} for. Handlers are inspected once per class.
+     *
+     * @param handlerClass packet handler implementation
+     * @return IDs of the packets the handler handles
+     */
+    public BitSet getHandledPackets(Class<? extends BedrockPacketHandler> handlerClass) {
+        checkNotNull(handlerClass, "handlerClass");
+        return (BitSet) this.handledPackets.computeIfAbsent(handlerClass, this::findHandledPackets).clone();
+    }
+
+    private BitSet findHandledPackets(Class<?> handlerClass) {
+        BitSet handled = new BitSet(this.packetsById.length);
+        // Public methods include those inherited from super classes and interfaces
+        for (Method method : handlerClass.getMethods()) {
+            if (!method.getName().equals("handle") || method.getParameterCount() != 1
+                    || method.getDeclaringClass() == BedrockPacketHandler.class) {
+                continue;
+            }
+            Class<?> packetClass = method.getParameterTypes()[0];
+            if (!BedrockPacket.class.isAssignableFrom(packetClass)) {
+                continue;
+            }
+            BedrockPacketDefinition<?> definition = this.packetsByClass.get(packetClass);
+            if (definition != null) {
+                handled.set(definition.getId());
+            }
+        }
+        return handled;
+    }
+
     public Builder toBuilder() {
         Builder builder = new Builder();
 
@@ -153,13 +207,31 @@ public final class BedrockPacketCodec {
                 throw new IllegalArgumentException("Unable to find suitable constructor for packet factory", e);
             }
 
-            BedrockPacketDefinition<T> info = new BedrockPacketDefinition<>(id, (Supplier) factory, serializer);
+            BedrockPacketDefinition<T> info = new BedrockPacketDefinition<>(id, (Supplier) factory, serializer,
+                    PacketDelivery.DEFAULT);
 
             this.packets.put(packetClass, info);
 
             return this;
         }
 
+        /**
+         * Set how a registered packet type is queued and compressed.
+         *
+         * @param packetClass registered packet type
+         * @param delivery    delivery of the packet type
+         * @return this builder
+         */
+        public Builder delivery(Class<? extends BedrockPacket> packetClass, @Nonnull PacketDelivery delivery) {
+            checkNotNull(packetClass, "packetClass");
+            checkNotNull(delivery, "delivery");
+            BedrockPacketDefinition<? extends BedrockPacket> info = this.packets.get(packetClass);
+            checkArgument(info != null, "Packet class is not registered");
+
+            this.packets.put(packetClass, info.withDelivery(delivery));
+            return this;
+        }
+
         public void deregisterPacket(Class<? extends BedrockPacket> packetClass) {
             checkNotNull(packetClass, "packetClass");
 
@@ -1,6 +1,7 @@
 package com.nukkitx.protocol.bedrock;
 
 import lombok.Value;
+import lombok.With;
 
 import java.util.function.Supplier;
 
@@ -9,4 +10,6 @@ public class BedrockPacketDefinition<T extends BedrockPacket> {
     int id;
     Supplier<T> factory;
     BedrockPacketSerializer<T> serializer;
+    @With
+    PacketDelivery delivery;
 }
@@ -73,7 +73,7 @@ public class BedrockServer extends Bedrock {
         }
         CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
         this.rakNetServer.close();
-        this.tickFuture.cancel(false);
+        this.stopTicking();
     }
 
     public boolean isClosed() {
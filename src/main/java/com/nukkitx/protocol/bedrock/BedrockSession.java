@@ -1,28 +1,41 @@
 package com.nukkitx.protocol.bedrock;
 
-import com.nukkitx.natives.sha256.Sha256;
-import com.nukkitx.natives.util.Natives;
+import com.nukkitx.math.vector.Vector3i;
 import com.nukkitx.network.SessionConnection;
 import com.nukkitx.network.util.DisconnectReason;
+import com.nukkitx.network.util.Preconditions;
 import com.nukkitx.protocol.MinecraftSession;
 import com.nukkitx.protocol.bedrock.annotation.NoEncryption;
 import com.nukkitx.protocol.bedrock.exception.PacketSerializeException;
 import com.nukkitx.protocol.bedrock.handler.BatchHandler;
 import com.nukkitx.protocol.bedrock.handler.BedrockPacketHandler;
 import com.nukkitx.protocol.bedrock.handler.DefaultBatchHandler;
+import com.nukkitx.protocol.bedrock.packet.BlockEntityDataPacket;
+import com.nukkitx.protocol.bedrock.packet.BlockEventPacket;
+import com.nukkitx.protocol.bedrock.packet.FullChunkDataPacket;
+import com.nukkitx.protocol.bedrock.packet.UnknownPacket;
+import com.nukkitx.protocol.bedrock.packet.UpdateBlockPacket;
+import com.nukkitx.protocol.bedrock.util.CipherProvider;
+import com.nukkitx.protocol.bedrock.util.EncryptionTrailer;
 import com.nukkitx.protocol.bedrock.util.EncryptionUtils;
+import com.nukkitx.protocol.bedrock.util.SessionCipher;
 import com.nukkitx.protocol.bedrock.v113.Bedrock_v113;
+import com.nukkitx.protocol.bedrock.wrapper.BedrockBatch;
 import com.nukkitx.protocol.bedrock.wrapper.BedrockWrapperSerializer;
+import com.nukkitx.protocol.bedrock.wrapper.CompressedPayloadCache;
+import com.nukkitx.protocol.bedrock.wrapper.CompressionPolicy;
+import com.nukkitx.protocol.bedrock.wrapper.InflateSizePredictor;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.channel.EventLoop;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.FastThreadLocalThread;
 import io.netty.util.internal.PlatformDependent;
 import io.netty.util.internal.logging.InternalLogger;
 import io.netty.util.internal.logging.InternalLoggerFactory;
-import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 
 import javax.annotation.Nonnull;
-import javax.crypto.Cipher;
+import javax.annotation.Nullable;
 import javax.crypto.SecretKey;
 import javax.security.auth.DestroyFailedException;
 import java.net.InetSocketAddress;
@@ -30,37 +43,88 @@ import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
+import java.util.function.IntPredicate;
 import java.util.zip.Deflater;
 
 import static java.util.Objects.requireNonNull;
 
 public abstract class BedrockSession implements MinecraftSession<BedrockPacket> {
     private static final InternalLogger log = InternalLoggerFactory.getInstance(BedrockSession.class);
-    private static final ThreadLocal<Sha256> HASH_LOCAL;
+    // Bulk packets may always send this much per interval, even while nothing else is sent
+    private static final int MIN_BULK_BYTES = 16384;
+    private static final long NO_CHUNK = Long.MIN_VALUE;
+    private static final long BULK_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
 
     private final Set<Consumer<DisconnectReason>> disconnectHandlers = Collections.newSetFromMap(new ConcurrentHashMap<>());
-    private final Queue<BedrockPacket> queuedPackets = PlatformDependent.newMpscQueue();
-    private final AtomicLong sentEncryptedPacketCount = new AtomicLong();
+    // Guarded by itself, so the oldest droppable packet can be removed from any thread
+    private final Deque<BedrockPacket> queuedPackets = new ArrayDeque<>();
+    private final AtomicLong checksumMismatchCount = new AtomicLong();
+    private final AtomicInteger queuedPacketCount = new AtomicInteger();
+    private final AtomicLong droppedPacketCount = new AtomicLong();
+    private final Map<Class<? extends BedrockPacket>, OverflowPolicy> overflowPolicies = new ConcurrentHashMap<>();
+    private final Object overflowLock = new Object();
+    private volatile OverflowPolicy defaultOverflowPolicy = OverflowPolicy.BLOCK;
+    private volatile int lowWatermark = Integer.MAX_VALUE;
+    private volatile int highWatermark = Integer.MAX_VALUE;
+    private final AtomicInteger peakQueuedPacketCount = new AtomicInteger();
+    private volatile boolean overflowing = false;
     private final BedrockWrapperSerializer wrapperSerializer;
     private final EventLoop eventLoop;
     final SessionConnection<ByteBuf> connection;
     private BedrockPacketCodec packetCodec = Bedrock_v113.V113_CODEC;
     private BedrockPacketHandler packetHandler;
     private BatchHandler batchHandler = DefaultBatchHandler.INSTANCE;
-    private Cipher encryptionCipher = null;
-    private Cipher decryptionCipher = null;
+    private volatile IntPredicate decodeFilter = null;
+    // Packets the packet handler handles, only used with the default batch handler
+    private volatile BitSet handledPackets = null;
+    private CipherProvider cipherProvider = EncryptionUtils.getDefaultCipherProvider();
+    private SessionCipher encryptionCipher = null;
+    private SessionCipher decryptionCipher = null;
     private SecretKey agreedKey;
+    private EncryptionTrailer outboundTrailer;
+    private EncryptionTrailer inboundTrailer;
+    private volatile boolean checksumVerification = true;
     private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    private volatile CompressionPolicy compressionPolicy = null;
+    private volatile CompressedPayloadCache payloadCache = null;
+    private volatile Executor compressionExecutor = null;
+    private volatile int asyncCompressionThreshold = Integer.MAX_VALUE;
+    private volatile long flushWindowNanos = -1;
+    private volatile int flushThreshold = Integer.MAX_VALUE;
+    private volatile int maxBatchSize = Integer.MAX_VALUE;
+    private volatile int maxCompressedBatchSize = Integer.MAX_VALUE;
+    private volatile double bulkShare = 1;
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private final Queue<OutboundWrapper> outboundWrappers = PlatformDependent.newMpscQueue();
+    private final AtomicBoolean outboundScheduled = new AtomicBoolean();
+    // Only accessed from the event loop
+    private PendingWrapper pendingWrapper;
+    // Wrappers in the order they are sent, held back while an earlier one is still being compressed
+    private final Queue<OutboundWrapper> orderedWrappers = new ArrayDeque<>();
+    private ScheduledFuture<?> flushFuture;
+    // Bytes of bulk packets which may still be sent, negative once more was sent
+    private long bulkAllowance = MIN_BULK_BYTES;
+    private long bulkRefillTime = System.nanoTime();
+    private ScheduledFuture<?> bulkFuture;
+    // Packets held back by an earlier drain, in the order they were queued
+    private final Queue<BedrockPacket> heldPackets = new ArrayDeque<>();
+    // What the packets held back by the current drain are
+    private final Set<Long> heldChunks = new HashSet<>();
+    private boolean bulkHeld;
+    private boolean unknownHeld;
+    private final InflateSizePredictor inflateSizePredictor = new InflateSizePredictor();
+    private double compressionRatio = 1;
     private volatile boolean closed = false;
     private volatile boolean logging = true;
 
-    static {
-        // Required for Android API versions prior to 26.
-        HASH_LOCAL = ThreadLocal.withInitial(Natives.SHA_256);
-    }
-
     BedrockSession(SessionConnection<ByteBuf> connection, EventLoop eventLoop, BedrockWrapperSerializer serializer) {
         this.connection = connection;
         this.eventLoop = eventLoop;
@@ -69,10 +133,26 @@ public abstract class BedrockSession implements MinecraftSession<BedrockPacket>
 
     public void setPacketHandler(@Nonnull BedrockPacketHandler packetHandler) {
         this.packetHandler = packetHandler;
+        this.updateHandledPackets();
     }
 
     public void setPacketCodec(BedrockPacketCodec packetCodec) {
         this.packetCodec = requireNonNull(packetCodec, "packetCodec");
+        this.updateHandledPackets();
+    }
+
+    /**
+     * Packets passed to the default batch handler which the packet handler does not handle are only logged and
+     * released, so they are not decoded at all. Other batch handlers may look at every packet.
+     */
+    private void updateHandledPackets() {
+        BedrockPacketHandler handler = this.packetHandler;
+        BedrockPacketCodec codec = this.packetCodec;
+        if (handler != null && codec != null && this.batchHandler == DefaultBatchHandler.INSTANCE) {
+            this.handledPackets = codec.getHandledPackets(handler.getClass());
+        } else {
+            this.handledPackets = null;
+        }
     }
 
     void checkForClosed() {
@@ -85,7 +165,31 @@ public abstract class BedrockSession implements MinecraftSession<BedrockPacket>
     public void sendPacket(@Nonnull BedrockPacket packet) {
         this.checkPacket(packet);
 
-        this.queuedPackets.add(packet);
+        OverflowPolicy policy = null;
+        if (this.overflowing) {
+            policy = this.getOverflowPolicy(packet.getClass());
+            if (!this.onOverflow(packet, policy)) {
+                return;
+            }
+        }
+
+        BedrockPacket dropped = null;
+        synchronized (this.queuedPackets) {
+            this.queuedPackets.add(packet);
+            if (policy == OverflowPolicy.DROP_OLDEST) {
+                dropped = this.removeOldestDroppable();
+            }
+        }
+        if (dropped != null) {
+            // The queue is as long as it was before
+            this.droppedPacketCount.incrementAndGet();
+            ReferenceCountUtil.release(dropped);
+        } else {
+            this.onQueued(1);
+        }
+        if (this.flushWindowNanos >= 0 && this.drainScheduled.compareAndSet(false, true)) {
+            this.eventLoop.execute(this::onWrite);
+        }
     }
 
     @Override
@@ -96,6 +200,111 @@ public abstract class BedrockSession implements MinecraftSession<BedrockPacket>
                 true);
     }
 
+    private void onQueued(int packets) {
+        int queued = this.queuedPacketCount.addAndGet(packets);
+        this.peakQueuedPacketCount.accumulateAndGet(queued, Math::max);
+        if (queued >= this.highWatermark) {
+            this.overflowing = true;
+        }
+    }
+
+    /**
+     * Count a wrapper sent with one of the sendWrapped methods against the watermarks. Its packets are not known, so
+     * above the high watermark it is handled according to the default policy, and {@link OverflowPolicy#DROP_OLDEST}
+     * disconnects as none of its packets can be dropped.
+     *
+     * @return true if the wrapper should still be sent
+     */
+    private boolean onForwarded(int packets) {
+        if (this.overflowing) {
+            OverflowPolicy policy = this.defaultOverflowPolicy;
+            if (!this.onOverflow(null, policy == OverflowPolicy.DROP_OLDEST ? OverflowPolicy.DISCONNECT : policy)) {
+                return false;
+            }
+        }
+        this.onQueued(packets);
+        return true;
+    }
+
+    /**
+     * @param packet packet to release if it is not queued, or null for a wrapper owned by the caller
+     * @return true if the packet should still be queued
+     */
+    private boolean onOverflow(@Nullable BedrockPacket packet, OverflowPolicy policy) {
+        switch (policy) {
+            case DROP_OLDEST:
+                return true;
+            case DISCONNECT:
+                log.debug("Outbound queue of {} is full, disconnecting", this.getAddress());
+                this.droppedPacketCount.incrementAndGet();
+                ReferenceCountUtil.release(packet);
+                this.disconnect();
+                return false;
+            case BLOCK:
+            default:
+                if (this.eventLoop.inEventLoop() || Thread.currentThread() instanceof FastThreadLocalThread) {
+                    // The queue is drained by the event loop, and waiting on any other Netty thread would hold up
+                    // every session sharing it.
+                    log.debug("Outbound queue of {} is full and cannot be waited on from {}, disconnecting",
+                            this.getAddress(), Thread.currentThread().getName());
+                    this.droppedPacketCount.incrementAndGet();
+                    ReferenceCountUtil.release(packet);
+                    this.disconnect();
+                    return false;
+                }
+                synchronized (this.overflowLock) {
+                    while (this.overflowing && !this.closed) {
+                        try {
+                            this.overflowLock.wait();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            break;
+                        }
+                    }
+                }
+                if (this.closed) {
+                    this.droppedPacketCount.incrementAndGet();
+                    ReferenceCountUtil.release(packet);
+                    return false;
+                }
+                return true;
+        }
+    }
+
+    /**
+     * Remove the oldest queued packet which uses {@link OverflowPolicy#DROP_OLDEST}. Must hold the queue lock.
+     *
+     * @return removed packet or null if none of the queued packets may be dropped
+     */
+    private BedrockPacket removeOldestDroppable() {
+        Iterator<BedrockPacket> iterator = this.queuedPackets.iterator();
+        while (iterator.hasNext()) {
+            BedrockPacket packet = iterator.next();
+            if (this.getOverflowPolicy(packet.getClass()) == OverflowPolicy.DROP_OLDEST) {
+                iterator.remove();
+                return packet;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stop counting packets which are no longer waiting to be sent, as their wrapper has been handed to the connection
+     * or they were dropped.
+     */
+    private void onSent(int packets) {
+        if (packets == 0) {
+            return;
+        }
+        int queued = this.queuedPacketCount.addAndGet(-packets);
+        if (this.overflowing && queued <= this.lowWatermark) {
+            synchronized (this.overflowLock) {
+                this.overflowing = false;
+                this.overflowLock.notifyAll();
+            }
+        }
+    }
+
     private void checkPacket(BedrockPacket packet) {
         this.checkForClosed();
         requireNonNull(packet, "packet");
@@ -114,16 +323,86 @@ public abstract class BedrockSession implements MinecraftSession<BedrockPacket>
     }
 
     public void sendWrapped(Collection<BedrockPacket> packets, boolean encrypt, boolean immediate) {
-        ByteBuf compressed = ByteBufAllocator.DEFAULT.ioBuffer();
+        if (this.onForwarded(packets.size())) {
+            this.sendWrapped(packets, encrypt, immediate, packets.size());
+        }
+    }
+
+    /**
+     * @param queuedPackets packets counted against the watermarks until the wrapper is handed to the connection
+     */
+    private void sendWrapped(Collection<BedrockPacket> packets, boolean encrypt, boolean immediate,
+                             int queuedPackets) {
+        ByteBuf encoded = ByteBufAllocator.DEFAULT.ioBuffer();
         try {
-            this.wrapperSerializer.serialize(compressed, this.packetCodec, packets, this.compressionLevel, this);
-            this.sendWrapped(compressed, encrypt, immediate);
-        } catch (Exception e) {
-            log.error("Unable to compress packets", e);
+            for (BedrockPacket packet : packets) {
+                this.encodePacket(encoded, packet);
+            }
+            boolean bulk = packets.size() == 1 && this.packetCodec.getDelivery(packets.iterator().next()).isBulk();
+            this.sendWrappedEncoded(Collections.singletonList(encoded), encrypt, immediate, bulk, queuedPackets);
         } finally {
-            if (compressed != null) {
-                compressed.release();
+            encoded.release();
+        }
+    }
+
+    public void sendWrappedEncoded(Collection<ByteBuf> encodedPackets, boolean encrypt) {
+        this.sendWrappedEncoded(encodedPackets, encrypt, false);
+    }
+
+    /**
+     * Send packets which have already been encoded, such as the payloads of a {@link BedrockBatch}, without decoding
+     * and re-encoding them.
+     *
+     * @param encodedPackets length-prefixed packets
+     * @param encrypt        whether the wrapper should be encrypted
+     * @param immediate      whether the wrapper should be sent immediately
+     */
+    public void sendWrappedEncoded(Collection<ByteBuf> encodedPackets, boolean encrypt, boolean immediate) {
+        this.sendWrappedEncoded(encodedPackets, encrypt, immediate, false);
+    }
+
+    /**
+     * Send packets which have already been encoded.
+     *
+     * @param encodedPackets length-prefixed packets
+     * @param encrypt        whether the wrapper should be encrypted
+     * @param immediate      whether the wrapper should be sent immediately
+     * @param bulk           whether most of the packets are bulk packets, which may be compressed harder
+     * @see PacketDelivery#isBulk()
+     */
+    public void sendWrappedEncoded(Collection<ByteBuf> encodedPackets, boolean encrypt, boolean immediate,
+                                   boolean bulk) {
+        if (this.onForwarded(encodedPackets.size())) {
+            this.sendWrappedEncoded(encodedPackets, encrypt, immediate, bulk, encodedPackets.size());
+        }
+    }
+
+    /**
+     * @param queuedPackets packets counted against the watermarks until the wrapper is handed to the connection
+     */
+    private void sendWrappedEncoded(Collection<ByteBuf> encodedPackets, boolean encrypt, boolean immediate,
+                                    boolean bulk, int queuedPackets) {
+        if (this.isCompressedAsync(encodedPackets)) {
+            List<ByteBuf> retained = new ArrayList<>(encodedPackets.size());
+            for (ByteBuf encodedPacket : encodedPackets) {
+                retained.add(encodedPacket.retainedDuplicate());
+            }
+            this.compressAsync(retained, encrypt, immediate, bulk, queuedPackets, false);
+            return;
+        }
+
+        ByteBuf compressed = ByteBufAllocator.DEFAULT.ioBuffer();
+        try {
+            try {
+                this.compress(compressed, encodedPackets, bulk);
+            } catch (Exception e) {
+                log.error("Unable to compress packets", e);
+                this.onSent(queuedPackets);
+                return;
             }
+            this.sendWrapped(compressed, encrypt, immediate, queuedPackets);
+        } finally {
+            compressed.release();
         }
     }
 
@@ -131,19 +410,175 @@ public abstract class BedrockSession implements MinecraftSession<BedrockPacket>
         this.sendWrapped(compressed, encrypt, false);
     }
 
-    public synchronized void sendWrapped(ByteBuf compressed, boolean encrypt, boolean immediate) {
+    /**
+     * Encrypt and send a compressed wrapper. Wrappers are always written from the event loop of this session so the
+     * ciphers and the trailer counter are never shared between threads. Wrappers sent from other threads are handed
+     * over in the order they were sent.
+     *
+     * @param compressed compressed wrapper, only has to be valid for the duration of this call
+     * @param encrypt    whether the wrapper should be encrypted
+     * @param immediate  whether the wrapper should be sent immediately
+     */
+    public void sendWrapped(ByteBuf compressed, boolean encrypt, boolean immediate) {
+        // The packets in a compressed wrapper are not known, so it counts as one.
+        if (this.onForwarded(1)) {
+            this.sendWrapped(compressed, encrypt, immediate, 1);
+        }
+    }
+
+    /**
+     * @param queuedPackets packets counted against the watermarks until the wrapper is handed to the connection
+     */
+    private void sendWrapped(ByteBuf compressed, boolean encrypt, boolean immediate, int queuedPackets) {
         requireNonNull(compressed, "compressed");
+        if (this.closed) {
+            return;
+        }
+
+        if (this.eventLoop.inEventLoop()) {
+            // Anything handed over earlier has to be written first.
+            this.writeOutboundWrappers();
+            this.writeWrapped(compressed, encrypt, immediate, queuedPackets);
+        } else {
+            this.outboundWrappers.add(new OutboundWrapper(compressed.retainedSlice(), encrypt, immediate,
+                    queuedPackets));
+            if (this.outboundScheduled.compareAndSet(false, true)) {
+                this.eventLoop.execute(this::writeOutboundWrappers);
+            }
+        }
+    }
+
+    private void writeOutboundWrappers() {
+        this.outboundScheduled.set(false);
+
+        OutboundWrapper wrapper;
+        while ((wrapper = this.outboundWrappers.poll()) != null) {
+            try {
+                this.writeWrapped(wrapper.buffer, wrapper.encrypt, wrapper.immediate, wrapper.queuedPackets);
+            } catch (RuntimeException e) {
+                log.error("Unable to send wrapper", e);
+            } finally {
+                wrapper.buffer.release();
+            }
+        }
+    }
+
+    private boolean isCompressedAsync(Collection<ByteBuf> encodedPackets) {
+        if (this.compressionExecutor == null || !this.eventLoop.inEventLoop()) {
+            // Other threads can take their time compressing.
+            return false;
+        }
+        int uncompressedSize = 0;
+        for (ByteBuf encodedPacket : encodedPackets) {
+            uncompressedSize += encodedPacket.readableBytes();
+        }
+        return uncompressedSize >= this.asyncCompressionThreshold;
+    }
+
+    /**
+     * Compress a wrapper on the compression executor. It is sent once every wrapper sent before it has been sent.
+     *
+     * @param encodedPackets length-prefixed packets, released once compressed
+     * @param queuedPackets  packets counted against the watermarks until the wrapper is handed to the connection
+     * @param pending        whether the packets are from the pending wrapper, which is sized by the compression ratio
+     */
+    private void compressAsync(List<ByteBuf> encodedPackets, boolean encrypt, boolean immediate, boolean bulk,
+                               int queuedPackets, boolean pending) {
+        OutboundWrapper wrapper = new OutboundWrapper(null, encrypt, immediate, queuedPackets);
+        wrapper.ready = false;
+        this.orderedWrappers.add(wrapper);
+
+        Runnable task = () -> {
+            int uncompressedSize = 0;
+            ByteBuf compressed = ByteBufAllocator.DEFAULT.ioBuffer();
+            try {
+                for (ByteBuf encodedPacket : encodedPackets) {
+                    uncompressedSize += encodedPacket.readableBytes();
+                }
+                this.compress(compressed, encodedPackets, bulk);
+            } catch (Exception e) {
+                log.error("Unable to compress packets", e);
+                compressed.release();
+                compressed = null;
+            } finally {
+                for (ByteBuf encodedPacket : encodedPackets) {
+                    encodedPacket.release();
+                }
+            }
+
+            ByteBuf result = compressed;
+            int size = uncompressedSize;
+            this.eventLoop.execute(() -> {
+                wrapper.buffer = result;
+                wrapper.ready = true;
+                if (pending && result != null) {
+                    this.updateCompressionRatio(size, result.readableBytes());
+                }
+                this.writeOrderedWrappers();
+            });
+        };
+        Executor executor = this.compressionExecutor;
+        try {
+            if (executor != null) {
+                executor.execute(task);
+                return;
+            }
+        } catch (RejectedExecutionException e) {
+            // Executor has been shut down
+        }
+        task.run();
+    }
+
+    private void writeWrapped(ByteBuf compressed, boolean encrypt, boolean immediate, int queuedPackets) {
+        if (this.orderedWrappers.isEmpty()) {
+            try {
+                this.writeWrappedNow(compressed, encrypt, immediate);
+            } finally {
+                this.onSent(queuedPackets);
+            }
+        } else {
+            // Wait for the wrappers which are still being compressed.
+            this.orderedWrappers.add(new OutboundWrapper(compressed.retainedSlice(), encrypt, immediate,
+                    queuedPackets));
+        }
+    }
+
+    private void writeOrderedWrappers() {
+        OutboundWrapper wrapper;
+        while ((wrapper = this.orderedWrappers.peek()) != null && wrapper.ready) {
+            this.orderedWrappers.poll();
+            this.onSent(wrapper.queuedPackets);
+            if (wrapper.buffer == null) {
+                // Could not be compressed
+                continue;
+            }
+            try {
+                this.writeWrappedNow(wrapper.buffer, wrapper.encrypt, wrapper.immediate);
+            } catch (RuntimeException e) {
+                log.error("Unable to send wrapper", e);
+            } finally {
+                wrapper.buffer.release();
+            }
+        }
+    }
+
+    private void writeWrappedNow(ByteBuf compressed, boolean encrypt, boolean immediate) {
+        if (this.closed) {
+            // Native ciphers may already have been freed.
+            return;
+        }
         try {
             ByteBuf finalPayload = ByteBufAllocator.DEFAULT.ioBuffer(1 + compressed.readableBytes() + 8);
             finalPayload.writeByte(0xfe); // Wrapped packet ID
             if (this.encryptionCipher != null && encrypt) {
-                ByteBuffer trailer = ByteBuffer.wrap(this.generateTrailer(compressed));
+                ByteBuffer trailer = this.outboundTrailer.generate(compressed);
 
                 ByteBuffer outBuffer = finalPayload.internalNioBuffer(1, compressed.readableBytes() + 8);
-                ByteBuffer inBuffer = compressed.internalNioBuffer(compressed.readerIndex(), compressed.readableBytes());
 
-                this.encryptionCipher.update(inBuffer, outBuffer);
-                this.encryptionCipher.update(trailer, outBuffer);
+                for (ByteBuffer inBuffer : nioBuffers(compressed)) {
+                    this.encryptionCipher.cipher(inBuffer, outBuffer);
+                }
+                this.encryptionCipher.cipher(trailer, outBuffer);
                 finalPayload.writerIndex(finalPayload.writerIndex() + compressed.readableBytes() + 8);
             } else {
                 finalPayload.writeBytes(compressed);
@@ -170,30 +605,371 @@ public abstract class BedrockSession implements MinecraftSession<BedrockPacket>
         this.sendQueued();
     }
 
+    private void onWrite() {
+        if (this.closed) {
+            return;
+        }
+
+        this.drainQueued();
+        long window = this.flushWindowNanos;
+        if (window <= 0) {
+            this.flushPending();
+        } else if (this.pendingWrapper != null && this.flushFuture == null) {
+            this.flushFuture = this.eventLoop.schedule(this::onFlushWindow, window, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void onFlushWindow() {
+        this.flushFuture = null;
+        if (this.closed) {
+            return;
+        }
+
+        this.sendQueued();
+    }
+
     private void sendQueued() {
+        this.drainQueued();
+        this.flushPending();
+    }
+
+    /**
+     * Encode queued packets into the pending wrapper, oldest first. Once bulk packets have used up their share they are
+     * held back for a later flush, and other packets overtake them unless they depend on one of them.
+     */
+    private void drainQueued() {
+        this.drainScheduled.set(false);
+        this.refillBulkAllowance();
+
+        this.heldChunks.clear();
+        this.bulkHeld = false;
+        this.unknownHeld = false;
+        // Packets held back earlier are older than anything still queued.
+        Iterator<BedrockPacket> iterator = this.heldPackets.iterator();
+        while (iterator.hasNext()) {
+            BedrockPacket packet = iterator.next();
+            if (!this.isHeldBack(packet)) {
+                iterator.remove();
+                this.drainPacket(packet);
+            }
+        }
+
         BedrockPacket packet;
-        List<BedrockPacket> toBatch = new ObjectArrayList<>();
-        while ((packet = this.queuedPackets.poll()) != null) {
-            if (packet.getClass().isAnnotationPresent(NoEncryption.class)) {
-                // We hit a unencryptable packet. Send the current wrapper and then send the unencryptable packet.
-                if (!toBatch.isEmpty()) {
-                    this.sendWrapped(toBatch, true);
-                    toBatch = new ObjectArrayList<>();
-                }
+        while ((packet = this.pollQueued()) != null) {
+            if (this.isHeldBack(packet)) {
+                this.heldPackets.add(packet);
+            } else {
+                this.drainPacket(packet);
+            }
+        }
 
-                this.sendPacketImmediately(packet);
-                continue;
+        if (this.bulkHeld) {
+            this.scheduleBulk();
+        } else {
+            // Nothing was competing with bulk packets, so do not save up their share for a burst.
+            this.bulkAllowance = Math.min(this.bulkAllowance, MIN_BULK_BYTES);
+        }
+    }
+
+    private BedrockPacket pollQueued() {
+        synchronized (this.queuedPackets) {
+            return this.queuedPackets.poll();
+        }
+    }
+
+    /**
+     * Check whether a packet has to wait for a later flush. Bulk packets over their share wait and stay in order. Other
+     * packets only wait for a held back packet they depend on: blocks in a chunk depend on the chunk itself, and
+     * packets of an unknown type may depend on anything. Any other packet does not depend on bulk packets.
+     */
+    private boolean isHeldBack(BedrockPacket packet) {
+        boolean bulk = this.packetCodec.getDelivery(packet).isBulk();
+        boolean unknown = packet instanceof UnknownPacket;
+        long chunk = getChunkKey(packet);
+
+        boolean held;
+        if (bulk) {
+            held = this.bulkHeld || (this.bulkShare < 1 && this.bulkAllowance <= 0);
+        } else if (unknown) {
+            held = this.bulkHeld;
+        } else {
+            held = chunk != NO_CHUNK && (this.unknownHeld || this.heldChunks.contains(chunk));
+        }
+
+        if (held) {
+            this.bulkHeld |= bulk;
+            this.unknownHeld |= unknown;
+            if (chunk != NO_CHUNK) {
+                this.heldChunks.add(chunk);
+            }
+        }
+        return held;
+    }
+
+    private void drainPacket(BedrockPacket packet) {
+        if (packet.getClass().isAnnotationPresent(NoEncryption.class)) {
+            // We hit a unencryptable packet. Send the current wrapper and then send the unencryptable packet.
+            this.flushPending();
+            this.sendWrapped(Collections.singletonList(packet), false, true, 1);
+            return;
+        }
+
+        if (this.pendingWrapper == null) {
+            this.pendingWrapper = new PendingWrapper(ByteBufAllocator.DEFAULT.ioBuffer());
+        }
+        PendingWrapper pending = this.pendingWrapper;
+        boolean bulk = this.packetCodec.getDelivery(packet).isBulk();
+        int encoded = this.encodePending(pending, packet, bulk);
+        double share = this.bulkShare;
+        if (bulk) {
+            this.bulkAllowance -= encoded;
+        } else if (share < 1) {
+            // Bulk packets may use their share of what is sent
+            this.bulkAllowance += (long) (encoded * share / (1 - share));
+        }
+        if (pending.buffer.readableBytes() >= this.flushThreshold) {
+            this.flushPending();
+        }
+    }
+
+    /**
+     * @return key of the chunk a packet sends or changes blocks of, or {@link #NO_CHUNK} if it has none
+     */
+    private static long getChunkKey(BedrockPacket packet) {
+        if (packet instanceof FullChunkDataPacket) {
+            FullChunkDataPacket chunk = (FullChunkDataPacket) packet;
+            return chunkKey(chunk.getChunkX(), chunk.getChunkZ());
+        }
+        Vector3i position;
+        if (packet instanceof UpdateBlockPacket) {
+            position = ((UpdateBlockPacket) packet).getBlockPosition();
+        } else if (packet instanceof BlockEntityDataPacket) {
+            position = ((BlockEntityDataPacket) packet).getBlockPosition();
+        } else if (packet instanceof BlockEventPacket) {
+            position = ((BlockEventPacket) packet).getBlockPosition();
+        } else {
+            return NO_CHUNK;
+        }
+        return position == null ? NO_CHUNK : chunkKey(position.getX() >> 4, position.getZ() >> 4);
+    }
+
+    private static long chunkKey(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xffffffffL);
+    }
+
+    private void refillBulkAllowance() {
+        long now = System.nanoTime();
+        long intervals = (now - this.bulkRefillTime) / BULK_INTERVAL_NANOS;
+        if (intervals > 0) {
+            this.bulkRefillTime += intervals * BULK_INTERVAL_NANOS;
+            if (this.bulkAllowance < MIN_BULK_BYTES) {
+                // Pay off what was sent beyond the allowance, but do not save up for a burst while idle.
+                this.bulkAllowance = Math.min(MIN_BULK_BYTES,
+                        this.bulkAllowance + Math.min(intervals, Integer.MAX_VALUE) * MIN_BULK_BYTES);
+            }
+        }
+    }
+
+    /**
+     * Drain the bulk packets which were held back once the allowance has been refilled, unless the next tick drains
+     * the queue anyway.
+     */
+    private void scheduleBulk() {
+        if (this.flushWindowNanos < 0 || this.bulkFuture != null) {
+            return;
+        }
+        long delay = this.bulkRefillTime + BULK_INTERVAL_NANOS - System.nanoTime();
+        this.bulkFuture = this.eventLoop.schedule(() -> {
+            this.bulkFuture = null;
+            this.onWrite();
+        }, Math.max(0, delay), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return bytes added to the wrapper
+     */
+    private int encodePending(PendingWrapper pending, BedrockPacket packet, boolean bulk) {
+        ByteBuf buffer = pending.buffer;
+        int start = buffer.writerIndex();
+        int length = this.encodePacket(buffer, packet);
+        CompressedPayloadCache cache = this.payloadCache;
+        // A packet large enough to be cached needs a wrapper of its own to be the same for every session.
+        boolean cached = cache != null && cache.isCacheable(length);
+        if (start > buffer.readerIndex() && (cached || buffer.readableBytes() > this.getBatchSizeBudget())) {
+            // Send the earlier packets rather than growing this wrapper past the batch size. A single packet larger
+            // than the batch size still gets a wrapper of its own.
+            int end = buffer.writerIndex();
+            buffer.writerIndex(start);
+            // The buffer may be handed over to the compression executor, keep it until the packet is moved.
+            buffer.retain();
+            try {
+                this.sendPending(pending);
+                pending.buffer.writeBytes(buffer, start, end - start);
+            } finally {
+                buffer.release();
+            }
+        }
+        if (length > 0) {
+            pending.packets++;
+            if (bulk) {
+                pending.bulkBytes += length;
+            }
+        } else {
+            // Could not be encoded
+            this.onSent(1);
+        }
+        if (cached) {
+            this.sendPending(pending);
+        }
+        return length;
+    }
+
+    /**
+     * Append a packet with its length prefix.
+     *
+     * @return bytes appended
+     */
+    private int encodePacket(ByteBuf buffer, BedrockPacket packet) {
+        int start = buffer.writerIndex();
+        try {
+            this.wrapperSerializer.writePacket(buffer, this.packetCodec, packet, this);
+        } catch (PacketSerializeException e) {
+            log.error("Error occurred whilst encoding " + packet.getClass().getSimpleName(), e);
+        }
+        return buffer.writerIndex() - start;
+    }
+
+    private void compress(ByteBuf compressed, Collection<ByteBuf> encodedPackets, boolean bulk) {
+        CompressedPayloadCache cache = this.payloadCache;
+        ByteBuf encoded = encodedPackets.size() == 1 ? encodedPackets.iterator().next() : null;
+        if (cache == null || encoded == null || !cache.isCacheable(encoded.readableBytes())) {
+            this.deflate(compressed, encodedPackets, bulk);
+            return;
+        }
+
+        ByteBuf cached = cache.get(encoded);
+        if (cached != null) {
+            try {
+                compressed.writeBytes(cached);
+            } finally {
+                cached.release();
+            }
+            return;
+        }
+        this.deflate(compressed, encodedPackets, bulk);
+        cache.put(encoded, compressed);
+    }
+
+    private void deflate(ByteBuf compressed, Collection<ByteBuf> encodedPackets, boolean bulk) {
+        CompressionPolicy policy = this.compressionPolicy;
+        if (policy == null) {
+            this.wrapperSerializer.serializeEncoded(compressed, encodedPackets, this.compressionLevel);
+            return;
+        }
+
+        int uncompressedSize = 0;
+        for (ByteBuf encodedPacket : encodedPackets) {
+            uncompressedSize += encodedPacket.readableBytes();
+        }
+        int level = policy.getLevel(uncompressedSize, bulk);
+        long start = System.nanoTime();
+        this.wrapperSerializer.serializeEncoded(compressed, encodedPackets, level);
+        policy.onCompressed(level, uncompressedSize, compressed.readableBytes(), System.nanoTime() - start);
+    }
+
+    private void flushPending() {
+        if (this.flushFuture != null) {
+            this.flushFuture.cancel(false);
+            this.flushFuture = null;
+        }
+        PendingWrapper pending = this.pendingWrapper;
+        if (pending == null) {
+            return;
+        }
+        this.pendingWrapper = null;
+        try {
+            if (pending.buffer.isReadable()) {
+                this.sendPending(pending);
+            }
+        } finally {
+            pending.buffer.release();
+        }
+    }
+
+    /**
+     * Compress and send the packets of a pending wrapper, leaving it empty.
+     */
+    private void sendPending(PendingWrapper wrapper) {
+        int packets = wrapper.packets;
+        boolean bulk = wrapper.isBulk();
+        wrapper.packets = 0;
+        wrapper.bulkBytes = 0;
+        if (this.isCompressedAsync(Collections.singletonList(wrapper.buffer))) {
+            // Hand the buffer over to the compression executor and start a new one.
+            ByteBuf buffer = wrapper.buffer;
+            wrapper.buffer = ByteBufAllocator.DEFAULT.ioBuffer();
+            this.compressAsync(Collections.singletonList(buffer), true, false, bulk, packets, true);
+            return;
+        }
+
+        ByteBuf compressed = ByteBufAllocator.DEFAULT.ioBuffer();
+        try {
+            int uncompressedSize = wrapper.buffer.readableBytes();
+            try {
+                this.compress(compressed, Collections.singletonList(wrapper.buffer), bulk);
+            } catch (Exception e) {
+                log.error("Unable to compress packets", e);
+                this.onSent(packets);
+                return;
             }
+            this.updateCompressionRatio(uncompressedSize, compressed.readableBytes());
+
+            this.sendWrapped(compressed, true, false, packets);
+        } finally {
+            compressed.release();
+            wrapper.buffer.clear();
+        }
+    }
+
+    private void updateCompressionRatio(int uncompressedSize, int compressedSize) {
+        // Moving average so a single incompressible wrapper does not shrink the next wrappers too much
+        double ratio = (double) compressedSize / uncompressedSize;
+        this.compressionRatio += (ratio - this.compressionRatio) / 4;
+    }
 
-            toBatch.add(packet);
+    /**
+     * @return uncompressed bytes a pending wrapper may hold to stay within both batch sizes
+     */
+    private int getBatchSizeBudget() {
+        int budget = this.maxBatchSize;
+        if (this.maxCompressedBatchSize != Integer.MAX_VALUE && this.compressionRatio > 0) {
+            budget = (int) Math.min(budget, this.maxCompressedBatchSize / this.compressionRatio);
         }
+        return budget;
+    }
 
-        if (!toBatch.isEmpty()) {
-            this.sendWrapped(toBatch, true);
+    private void releasePending() {
+        if (this.pendingWrapper != null) {
+            this.pendingWrapper.buffer.release();
+            this.pendingWrapper = null;
+        }
+        BedrockPacket packet;
+        while ((packet = this.heldPackets.poll()) != null) {
+            ReferenceCountUtil.release(packet);
         }
     }
 
-    public synchronized void enableEncryption(@Nonnull SecretKey secretKey) {
+    /**
+     * Enable encryption of wrappers sent and received from now on. Ciphers are only used from the event loop of the
+     * session, so this has to be called from it as well, usually from the packet handler handling the handshake.
+     *
+     * @param secretKey agreed key
+     * @throws IllegalStateException if called from another thread
+     */
+    public void enableEncryption(@Nonnull SecretKey secretKey) {
+        if (!this.eventLoop.inEventLoop()) {
+            throw new IllegalStateException("Encryption has to be enabled from the event loop of the session");
+        }
         this.checkForClosed();
         log.debug("Encryption enabled.");
         requireNonNull(secretKey, "secretKey");
@@ -205,27 +981,13 @@ public abstract class BedrockSession implements MinecraftSession<BedrockPacket>
         }
 
         this.agreedKey = secretKey;
+        byte[] key = secretKey.getEncoded();
+        this.outboundTrailer = new EncryptionTrailer(key);
+        this.inboundTrailer = new EncryptionTrailer(key);
+        Arrays.fill(key, (byte) 0);
         boolean useGcm = this.packetCodec.getProtocolVersion() > 428;
-        this.encryptionCipher = EncryptionUtils.createCipher(useGcm, true, secretKey);
-        this.decryptionCipher = EncryptionUtils.createCipher(useGcm, false, secretKey);
-    }
-
-    private byte[] generateTrailer(ByteBuf buf) {
-        Sha256 hash = HASH_LOCAL.get();
-        ByteBuf counterBuf = ByteBufAllocator.DEFAULT.directBuffer(8);
-        try {
-            counterBuf.writeLongLE(this.sentEncryptedPacketCount.getAndIncrement());
-            ByteBuffer keyBuffer = ByteBuffer.wrap(this.agreedKey.getEncoded());
-
-            hash.update(counterBuf.internalNioBuffer(0, 8));
-            hash.update(buf.internalNioBuffer(buf.readerIndex(), buf.readableBytes()));
-            hash.update(keyBuffer);
-            byte[] digested = hash.digest();
-            return Arrays.copyOf(digested, 8);
-        } finally {
-            counterBuf.release();
-            hash.reset();
-        }
+        this.encryptionCipher = this.cipherProvider.create(useGcm, true, secretKey);
+        this.decryptionCipher = this.cipherProvider.create(useGcm, false, secretKey);
     }
 
     public boolean isEncrypted() {
@@ -237,13 +999,23 @@ public abstract class BedrockSession implements MinecraftSession<BedrockPacket>
     void close(DisconnectReason reason) {
         checkForClosed();
         this.closed = true;
-        // Free native resources if required
-//        if (this.encryptionCipher != null) {
-//            this.encryptionCipher.free();
-//        }
-//        if (this.decryptionCipher != null) {
-//            this.decryptionCipher.free();
-//        }
+        synchronized (this.overflowLock) {
+            this.overflowLock.notifyAll();
+        }
+        this.eventLoop.execute(() -> {
+            this.releasePending();
+            // Release anything handed over after the session was closed.
+            this.writeOutboundWrappers();
+            this.writeOrderedWrappers();
+
+            // Free native resources and destroy the cached key
+            if (this.encryptionCipher != null) {
+                this.encryptionCipher.free();
+                this.decryptionCipher.free();
+                this.outboundTrailer.destroy();
+                this.inboundTrailer.destroy();
+            }
+        });
 
         // Destroy secret key
         if (this.agreedKey != null && !this.agreedKey.isDestroyed()) {
@@ -259,24 +1031,37 @@ public abstract class BedrockSession implements MinecraftSession<BedrockPacket>
     }
 
     public void onWrappedPacket(final ByteBuf batched) {
+        if (this.closed) {
+            return;
+        }
         try {
             if (this.isEncrypted()) {
-                // This method only supports contiguous buffers, not composite.
-                ByteBuffer inBuffer = batched.internalNioBuffer(batched.readerIndex(), batched.readableBytes());
-                ByteBuffer outBuffer = inBuffer.duplicate();
-                // Copy-safe so we can use the same buffer.
-                this.decryptionCipher.update(inBuffer, outBuffer);
-
-                // TODO: Maybe verify the checksum?
+                // Decrypt in place, component by component for reassembled composite buffers.
+                for (ByteBuffer inBuffer : nioBuffers(batched)) {
+                    // Copy-safe so we can use the same buffer.
+                    this.decryptionCipher.cipher(inBuffer, inBuffer.duplicate());
+                }
 
-                batched.writerIndex(batched.writerIndex() - 8);
+                boolean valid = this.inboundTrailer.verify(batched);
+                batched.writerIndex(batched.writerIndex() - EncryptionTrailer.LENGTH);
+                if (!valid) {
+                    this.checksumMismatchCount.incrementAndGet();
+                    if (this.checksumVerification) {
+                        log.debug("Invalid checksum from {}, dropping wrapper", this.getAddress());
+                        return;
+                    }
+                }
             }
             batched.markReaderIndex();
 
             if (batched.isReadable()) {
-                List<BedrockPacket> packets = new ObjectArrayList<>();
-                this.wrapperSerializer.deserialize(batched, this.packetCodec, packets, this);
-                this.batchHandler.handle(this, batched, packets);
+                BedrockBatch batch = new BedrockBatch();
+                try {
+                    this.wrapperSerializer.deserialize(batched, this.packetCodec, batch, this);
+                    this.batchHandler.handle(this, batched, batch);
+                } finally {
+                    batch.release();
+                }
             }
         } catch (GeneralSecurityException ignore) {
         } catch (PacketSerializeException e) {
@@ -300,6 +1085,10 @@ public abstract class BedrockSession implements MinecraftSession<BedrockPacket>
         return this.packetCodec;
     }
 
+    public BedrockWrapperSerializer getWrapperSerializer() {
+        return this.wrapperSerializer;
+    }
+
     public BedrockPacketHandler getPacketHandler() {
         return this.packetHandler;
     }
@@ -310,6 +1099,246 @@ public abstract class BedrockSession implements MinecraftSession<BedrockPacket>
 
     public void setBatchHandler(BatchHandler batchHandler) {
         this.batchHandler = requireNonNull(batchHandler, "batchHandler");
+        this.updateHandledPackets();
+    }
+
+    /**
+     * Set which packet IDs are fully decoded when a wrapper is received. Packets rejected by the filter are passed to
+     * the {@link BatchHandler} as {@link com.nukkitx.protocol.bedrock.packet.UnknownPacket}s holding their original
+     * payload so they can be forwarded without being deserialized.
+     * <p>
+     * Without a filter, sessions using the {@link DefaultBatchHandler} only decode the packets their packet handler
+     * handles.
+     *
+     * @param decodeFilter packet IDs to decode or null to decode every packet
+     */
+    public void setDecodeFilter(@Nullable IntPredicate decodeFilter) {
+        this.decodeFilter = decodeFilter;
+    }
+
+    public IntPredicate getDecodeFilter() {
+        return this.decodeFilter;
+    }
+
+    public boolean isDecoded(int packetId) {
+        IntPredicate filter = this.decodeFilter;
+        if (filter != null) {
+            return filter.test(packetId);
+        }
+        BitSet handled = this.handledPackets;
+        return handled == null || handled.get(packetId);
+    }
+
+    /**
+     * Set how long packets sent with {@link #sendPacket(BedrockPacket)} may wait for more packets to be batched with
+     * before being flushed. Without a window queued packets are only flushed on the next tick.
+     *
+     * @param window time to wait after the first queued packet, 0 to flush straight away or negative to wait for the
+     *               next tick
+     * @param unit   unit of the window
+     */
+    public void setFlushWindow(long window, TimeUnit unit) {
+        this.flushWindowNanos = window < 0 ? -1 : unit.toNanos(window);
+    }
+
+    public long getFlushWindow(TimeUnit unit) {
+        return this.flushWindowNanos < 0 ? -1 : unit.convert(this.flushWindowNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Set the amount of encoded packets after which queued packets are flushed without waiting for the flush window
+     * or the next tick.
+     *
+     * @param flushThreshold threshold in bytes of uncompressed packet data
+     */
+    public void setFlushThreshold(int flushThreshold) {
+        this.flushThreshold = flushThreshold <= 0 ? Integer.MAX_VALUE : flushThreshold;
+    }
+
+    public int getFlushThreshold() {
+        return this.flushThreshold;
+    }
+
+    /**
+     * Limit the size of the wrappers packets sent with {@link #sendPacket(BedrockPacket)} are batched into, so a large
+     * queue is sent as several wrappers rather than one which has to be split into many datagrams. The compressed size
+     * is estimated from the compression ratio of earlier wrappers.
+     *
+     * @param maxBatchSize           bytes of uncompressed packet data per wrapper or 0 for no limit
+     * @param maxCompressedBatchSize bytes of compressed packet data per wrapper or 0 for no limit
+     */
+    public void setBatchSizes(int maxBatchSize, int maxCompressedBatchSize) {
+        this.maxBatchSize = maxBatchSize <= 0 ? Integer.MAX_VALUE : maxBatchSize;
+        this.maxCompressedBatchSize = maxCompressedBatchSize <= 0 ? Integer.MAX_VALUE : maxCompressedBatchSize;
+    }
+
+    public int getMaxBatchSize() {
+        return this.maxBatchSize;
+    }
+
+    public int getMaxCompressedBatchSize() {
+        return this.maxCompressedBatchSize;
+    }
+
+    /**
+     * Set the share of the bytes sent from the outbound queue which may be bulk packets, such as chunks. On top of
+     * their share bulk packets may send 16 kilobytes every 10 milliseconds, so they still go out while nothing else is
+     * sent. Bulk packets over their share are held back in order until a later flush. Other packets are sent with the
+     * next flush, unless they change blocks of a held back chunk or are of an unknown type.
+     *
+     * @param bulkShare share between 0 and 1, where 1 sends every bulk packet straight away
+     * @see PacketDelivery#isBulk()
+     */
+    public void setBulkShare(double bulkShare) {
+        Preconditions.checkArgument(bulkShare > 0 && bulkShare <= 1, "Bulk share must be above 0 and at most 1");
+        this.bulkShare = bulkShare;
+    }
+
+    public double getBulkShare() {
+        return this.bulkShare;
+    }
+
+    /**
+     * Bound the number of packets waiting to be sent. Packets sent with {@link #sendPacket(BedrockPacket)} or in a
+     * wrapper passed to one of the sendWrapped methods count until their wrapper has been handed to the connection,
+     * which includes wrappers waiting for the flush window, for the event loop or for compression. A wrapper which is
+     * already compressed counts as one packet. Once this reaches the high watermark newly sent packets are handled
+     * according to their {@link OverflowPolicy} until it has drained to the low watermark.
+     *
+     * @param lowWatermark  queued packets at which the queue is accepting packets again
+     * @param highWatermark queued packets at which the overflow policies apply
+     */
+    public void setQueueWatermarks(int lowWatermark, int highWatermark) {
+        Preconditions.checkArgument(lowWatermark >= 0 && lowWatermark <= highWatermark,
+                "Low watermark must be between 0 and the high watermark");
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+    }
+
+    public int getLowWatermark() {
+        return this.lowWatermark;
+    }
+
+    public int getHighWatermark() {
+        return this.highWatermark;
+    }
+
+    public void setDefaultOverflowPolicy(OverflowPolicy policy) {
+        this.defaultOverflowPolicy = requireNonNull(policy, "policy");
+    }
+
+    /**
+     * Set the overflow policy of a packet type.
+     *
+     * @param packetClass packet type
+     * @param policy      policy or null to use the default policy
+     */
+    public void setOverflowPolicy(Class<? extends BedrockPacket> packetClass, @Nullable OverflowPolicy policy) {
+        requireNonNull(packetClass, "packetClass");
+        if (policy == null) {
+            this.overflowPolicies.remove(packetClass);
+        } else {
+            this.overflowPolicies.put(packetClass, policy);
+        }
+    }
+
+    public OverflowPolicy getOverflowPolicy(Class<? extends BedrockPacket> packetClass) {
+        return this.overflowPolicies.getOrDefault(packetClass, this.defaultOverflowPolicy);
+    }
+
+    /**
+     * @return number of packets whose wrapper has not been handed to the connection yet
+     */
+    public int getQueuedPacketCount() {
+        return this.queuedPacketCount.get();
+    }
+
+    /**
+     * @return highest number of packets which were waiting to be sent at once
+     */
+    public int getPeakQueuedPacketCount() {
+        return this.peakQueuedPacketCount.get();
+    }
+
+    /**
+     * @return number of packets dropped because the outbound queue was full
+     */
+    public long getDroppedPacketCount() {
+        return this.droppedPacketCount.get();
+    }
+
+    /**
+     * Set whether wrappers with an invalid checksum are dropped. Checksums are always verified so mismatches are
+     * counted either way.
+     *
+     * @param checksumVerification true to drop wrappers with an invalid checksum
+     */
+    public void setChecksumVerification(boolean checksumVerification) {
+        this.checksumVerification = checksumVerification;
+    }
+
+    public boolean isChecksumVerification() {
+        return this.checksumVerification;
+    }
+
+    /**
+     * @return number of encrypted wrappers received with an invalid checksum
+     */
+    public long getChecksumMismatchCount() {
+        return this.checksumMismatchCount.get();
+    }
+
+    /**
+     * Set the provider of the ciphers created when encryption is enabled.
+     *
+     * @param cipherProvider cipher provider
+     */
+    public void setCipherProvider(CipherProvider cipherProvider) {
+        this.cipherProvider = requireNonNull(cipherProvider, "cipherProvider");
+    }
+
+    public CipherProvider getCipherProvider() {
+        return this.cipherProvider;
+    }
+
+    /**
+     * Set the policy picking the compression level of each wrapper.
+     *
+     * @param compressionPolicy policy or null to compress every wrapper with the level set by
+     *                          {@link #setCompressionLevel(int)}
+     */
+    public void setCompressionPolicy(@Nullable CompressionPolicy compressionPolicy) {
+        this.compressionPolicy = compressionPolicy;
+    }
+
+    public CompressionPolicy getCompressionPolicy() {
+        return this.compressionPolicy;
+    }
+
+    /**
+     * Reuse the compressed wrappers of large packets which were already compressed by this or another session sharing
+     * the cache. Queued packets large enough to be cached are sent in a wrapper of their own.
+     *
+     * @param payloadCache cache of compressed wrappers or null to compress every wrapper
+     */
+    public void setPayloadCache(@Nullable CompressedPayloadCache payloadCache) {
+        this.payloadCache = payloadCache;
+    }
+
+    public CompressedPayloadCache getPayloadCache() {
+        return this.payloadCache;
+    }
+
+    /**
+     * Compress large wrappers on another executor so they do not hold up other sessions sharing the event loop.
+     * Wrappers are still sent in the order they were sent in.
+     *
+     * @param executor  executor to compress on or null to always compress on the calling thread
+     * @param threshold bytes of packet data from which wrappers are compressed on the executor
+     */
+    public void setCompressionExecutor(@Nullable Executor executor, int threshold) {
+        this.asyncCompressionThreshold = threshold;
+        this.compressionExecutor = executor;
     }
 
     public void setCompressionLevel(int compressionLevel) {
@@ -342,10 +1371,57 @@ public abstract class BedrockSession implements MinecraftSession<BedrockPacket>
         return this.eventLoop;
     }
 
+    /**
+     * @return predictor of the inflated size of received wrappers, only to be used from the event loop
+     */
+    public InflateSizePredictor getInflateSizePredictor() {
+        return this.inflateSizePredictor;
+    }
+
     public SessionConnection<ByteBuf> getConnection() {
         return this.connection;
     }
 
+    private static ByteBuffer[] nioBuffers(ByteBuf buffer) {
+        if (buffer.nioBufferCount() == 1) {
+            return new ByteBuffer[]{buffer.internalNioBuffer(buffer.readerIndex(), buffer.readableBytes())};
+        }
+        return buffer.nioBuffers(buffer.readerIndex(), buffer.readableBytes());
+    }
+
+    private static class OutboundWrapper {
+        private ByteBuf buffer;
+        private boolean ready = true;
+        private final boolean encrypt;
+        private final boolean immediate;
+        private final int queuedPackets;
+
+        private OutboundWrapper(ByteBuf buffer, boolean encrypt, boolean immediate, int queuedPackets) {
+            this.buffer = buffer;
+            this.encrypt = encrypt;
+            this.immediate = immediate;
+            this.queuedPackets = queuedPackets;
+        }
+    }
+
+    private static class PendingWrapper {
+        private ByteBuf buffer;
+        // Packets encoded into the buffer
+        private int packets;
+        private int bulkBytes;
+
+        private PendingWrapper(ByteBuf buffer) {
+            this.buffer = buffer;
+        }
+
+        /**
+         * @return true if most of the buffer is bulk packets
+         */
+        private boolean isBulk() {
+            return this.bulkBytes > this.buffer.readableBytes() / 2;
+        }
+    }
+
 //    @ParametersAreNonnullByDefault
 //    abstract class BedrockSessionListener implements RakNetSessionListener {
 //
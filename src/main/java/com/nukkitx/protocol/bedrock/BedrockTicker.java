@@ -0,0 +1,45 @@
+package com.nukkitx.protocol.bedrock;
+
+import io.netty.channel.EventLoopGroup;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single timer which ticks many clients or servers instead of each of them scheduling their own. Sessions still flush
+ * their queued packets on their own event loop.
+ */
+public class BedrockTicker {
+    private final Set<Bedrock> instances = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final ScheduledFuture<?> tickFuture;
+
+    public BedrockTicker(EventLoopGroup eventLoopGroup) {
+        this.tickFuture = eventLoopGroup.scheduleAtFixedRate(this::onTick, 50, 50, TimeUnit.MILLISECONDS);
+    }
+
+    void add(Bedrock bedrock) {
+        this.instances.add(bedrock);
+    }
+
+    void remove(Bedrock bedrock) {
+        this.instances.remove(bedrock);
+    }
+
+    public int size() {
+        return this.instances.size();
+    }
+
+    public void close() {
+        this.tickFuture.cancel(false);
+        this.instances.clear();
+    }
+
+    private void onTick() {
+        for (Bedrock bedrock : this.instances) {
+            bedrock.onTick();
+        }
+    }
+}
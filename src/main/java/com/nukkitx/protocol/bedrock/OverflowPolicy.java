@@ -0,0 +1,26 @@
+package com.nukkitx.protocol.bedrock;
+
+/**
+ * What happens to a packet sent with {@link BedrockSession#sendPacket(BedrockPacket)} while the outbound queue of the
+ * session is above its high watermark. Wrappers sent with the sendWrapped methods of the session are handled according
+ * to its default policy.
+ */
+public enum OverflowPolicy {
+    /**
+     * Wait until the queue has drained below its low watermark. The packet is released if the session is closed while
+     * waiting. Netty threads, such as the event loop of this or another session, must not wait, so packets sent from
+     * them are handled like {@link #DISCONNECT}.
+     */
+    BLOCK,
+    /**
+     * Queue the packet and drop the oldest queued packet which also uses this policy, which is the packet itself if
+     * no other such packet is queued. Packets already encoded into a wrapper are not dropped, so wrappers sent with
+     * the sendWrapped methods disconnect instead. Meant for packets which are superseded by the next one of the same
+     * type, such as movement.
+     */
+    DROP_OLDEST,
+    /**
+     * Drop the packet and disconnect the session.
+     */
+    DISCONNECT
+}
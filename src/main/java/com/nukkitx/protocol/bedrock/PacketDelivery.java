@@ -0,0 +1,27 @@
+package com.nukkitx.protocol.bedrock;
+
+/**
+ * How a session queues and compresses a packet type sent with {@link BedrockSession#sendPacket(BedrockPacket)}.
+ * <p>
+ * Every wrapper is handed to RakNet the same way. Encrypted wrappers have to be decrypted in the order they were
+ * encrypted, so they all share one ordering channel, and RakNet numbers a wrapper as it is handed over. A wrapper can
+ * therefore never reach the client before one sent earlier, whatever its priority, and the delivery of a packet only
+ * affects what happens to it before its wrapper is sent.
+ */
+public enum PacketDelivery {
+    /**
+     * Packets the player notices straight away, such as movement and chat, which do not depend on any bulk packet
+     * queued before them.
+     */
+    INTERACTIVE,
+    DEFAULT,
+    /**
+     * Large packets which are not needed straight away, such as chunks. Wrappers made up of them are compressed as
+     * bulk data by the {@link com.nukkitx.protocol.bedrock.wrapper.CompressionPolicy}.
+     */
+    BULK;
+
+    public boolean isBulk() {
+        return this == BULK;
+    }
+}
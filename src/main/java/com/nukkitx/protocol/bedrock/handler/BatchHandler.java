@@ -2,11 +2,22 @@ package com.nukkitx.protocol.bedrock.handler;
 
 import com.nukkitx.protocol.bedrock.BedrockPacket;
 import com.nukkitx.protocol.bedrock.BedrockSession;
+import com.nukkitx.protocol.bedrock.wrapper.BedrockBatch;
 import io.netty.buffer.ByteBuf;
 
 import java.util.Collection;
 
 public interface BatchHandler {
 
+    /**
+     * Handle packets received in a single wrapper.
+     * <p>
+     * When called by a {@link BedrockSession}, {@code packets} is a {@link BedrockBatch} which also holds the encoded
+     * form of each packet until this method returns.
+     *
+     * @param session    session the wrapper was received on
+     * @param compressed compressed wrapper
+     * @param packets    packets in the wrapper
+     */
     void handle(BedrockSession session, ByteBuf compressed, Collection<BedrockPacket> packets);
 }
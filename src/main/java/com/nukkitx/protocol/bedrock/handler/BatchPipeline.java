@@ -0,0 +1,364 @@
+package com.nukkitx.protocol.bedrock.handler;
+
+import com.nukkitx.protocol.bedrock.BedrockPacket;
+import com.nukkitx.protocol.bedrock.BedrockSession;
+import com.nukkitx.protocol.bedrock.exception.PacketSerializeException;
+import com.nukkitx.protocol.bedrock.wrapper.BedrockBatch;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.internal.logging.InternalLogger;
+import io.netty.util.internal.logging.InternalLoggerFactory;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.IntPredicate;
+
+import static com.nukkitx.network.util.Preconditions.checkNotNull;
+
+/**
+ * Batch handler made of an ordered chain of stages. Each stage declares the packet IDs it applies to and the chain is
+ * compiled into a table indexed by packet ID, so packets without any stages are passed straight through.
+ * <p>
+ * Packets which survive every stage are forwarded to the target session, if one is set. Unmodified packets are sent
+ * in the form they were received in and a batch in which no packet was dropped or modified is sent without being
+ * recompressed.
+ */
+public final class BatchPipeline implements BatchHandler {
+    private static final InternalLogger log = InternalLoggerFactory.getInstance(BatchPipeline.class);
+    private static final Stage[] NO_STAGES = new Stage[0];
+
+    private final Stage[][] stagesById;
+    private final BitSet decodedPackets;
+    private final BedrockSession target;
+    private final BatchMirror mirror;
+
+    private BatchPipeline(Stage[][] stagesById, BitSet decodedPackets, BedrockSession target, BatchMirror mirror) {
+        this.stagesById = stagesById;
+        this.decodedPackets = decodedPackets;
+        this.target = target;
+        this.mirror = mirror;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Packet IDs which have at least one stage requiring the decoded packet. Can be used as the decode filter of the
+     * session this pipeline handles.
+     *
+     * @return filter of packet IDs which need to be decoded
+     */
+    public IntPredicate getDecodeFilter() {
+        return this.decodedPackets::get;
+    }
+
+    @Override
+    public void handle(BedrockSession session, ByteBuf compressed, Collection<BedrockPacket> packets) {
+        BedrockBatch batch = packets instanceof BedrockBatch ? (BedrockBatch) packets : null;
+        // Without the encoded form every forwarded packet has to be encoded again.
+        boolean untouched = batch != null;
+        List<ByteBuf> forwarded = new ObjectArrayList<>(packets.size());
+        List<ByteBuf> encoded = null;
+        // Bytes of forwarded packets and of the bulk packets among them, to pick the compression level by
+        long forwardedBytes = 0;
+        long bulkBytes = 0;
+
+        int index = 0;
+        try {
+            for (BedrockPacket packet : packets) {
+                int packetId = packet.getPacketId();
+                Stage[] stages = packetId < this.stagesById.length ? this.stagesById[packetId] : NO_STAGES;
+                boolean forward = true;
+                boolean modified = batch == null;
+                ByteBuf packetBuffer = null;
+
+                for (Stage stage : stages) {
+                    if (stage.filter != null) {
+                        if (!stage.filter.test(session, packet)) {
+                            forward = false;
+                            break;
+                        }
+                    } else if (stage.transformer != null) {
+                        packet = stage.transformer.transform(session, packet);
+                        modified = true;
+                        if (packet == null) {
+                            forward = false;
+                            break;
+                        }
+                    } else {
+                        if (packetBuffer == null && batch != null) {
+                            packetBuffer = batch.getPacketBuffer(index);
+                        }
+                        this.observe(stage, session, packet, packetBuffer);
+                    }
+                }
+
+                if (!forward) {
+                    // Packet has been consumed by a stage.
+                    untouched = false;
+                } else if (modified) {
+                    untouched = false;
+                    if (this.target != null) {
+                        if (encoded == null) {
+                            encoded = new ObjectArrayList<>();
+                        }
+                        ByteBuf buffer = encode(this.target, packet);
+                        if (buffer != null) {
+                            encoded.add(buffer);
+                            forwarded.add(buffer);
+                            forwardedBytes += buffer.readableBytes();
+                            if (this.target.getPacketCodec().getDelivery(packet).isBulk()) {
+                                bulkBytes += buffer.readableBytes();
+                            }
+                        }
+                    } else {
+                        ReferenceCountUtil.release(packet);
+                    }
+                } else {
+                    ByteBuf payload = batch.getPayload(index);
+                    forwarded.add(payload);
+                    forwardedBytes += payload.readableBytes();
+                    if (this.target != null && this.target.getPacketCodec().getDelivery(packet).isBulk()) {
+                        bulkBytes += payload.readableBytes();
+                    }
+                    ReferenceCountUtil.release(packet);
+                }
+                index++;
+            }
+
+            if (this.target != null) {
+                if (untouched) {
+                    compressed.resetReaderIndex();
+                    this.target.sendWrapped(compressed, true);
+                } else if (!forwarded.isEmpty()) {
+                    this.target.sendWrappedEncoded(forwarded, true, false, bulkBytes > forwardedBytes / 2);
+                }
+            }
+
+            if (this.mirror != null && !forwarded.isEmpty()) {
+                this.mirror.mirror(untouched ? compressed : null, forwarded);
+            }
+        } finally {
+            if (encoded != null) {
+                for (ByteBuf buffer : encoded) {
+                    buffer.release();
+                }
+            }
+        }
+    }
+
+    private void observe(Stage stage, BedrockSession session, BedrockPacket packet, @Nullable ByteBuf packetBuffer) {
+        if (stage.executor == null) {
+            stage.observer.observe(session, packet, packetBuffer);
+            return;
+        }
+
+        // The batch is released once this handler returns so asynchronous observers get their own copy.
+        ReferenceCountUtil.retain(packet);
+        ByteBuf copy = packetBuffer == null ? null : packetBuffer.copy();
+        try {
+            stage.executor.execute(() -> {
+                try {
+                    stage.observer.observe(session, packet, copy);
+                } finally {
+                    ReferenceCountUtil.release(packet);
+                    if (copy != null) {
+                        copy.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            ReferenceCountUtil.release(packet);
+            if (copy != null) {
+                copy.release();
+            }
+            log.debug("Observer {} is saturated, skipping packet", stage.name);
+        }
+    }
+
+    private static ByteBuf encode(BedrockSession session, BedrockPacket packet) {
+        ByteBuf buffer = ByteBufAllocator.DEFAULT.ioBuffer();
+        try {
+            session.getWrapperSerializer().writePacket(buffer, session.getPacketCodec(), packet, session);
+            return buffer;
+        } catch (PacketSerializeException e) {
+            buffer.release();
+            log.error("Error occurred whilst encoding " + packet.getClass().getSimpleName(), e);
+            return null;
+        } catch (RuntimeException e) {
+            buffer.release();
+            throw e;
+        }
+    }
+
+    @FunctionalInterface
+    public interface PacketFilter {
+
+        /**
+         * @param session session the packet was received on
+         * @param packet  received packet
+         * @return false if the packet has been consumed and should not be forwarded
+         */
+        boolean test(BedrockSession session, BedrockPacket packet);
+    }
+
+    @FunctionalInterface
+    public interface PacketTransformer {
+
+        /**
+         * @param session session the packet was received on
+         * @param packet  received packet
+         * @return packet to forward in its place, which will be re-encoded, or null to drop it
+         */
+        @Nullable
+        BedrockPacket transform(BedrockSession session, BedrockPacket packet);
+    }
+
+    @FunctionalInterface
+    public interface PacketObserver {
+
+        /**
+         * @param session      session the packet was received on
+         * @param packet       received packet, an {@link com.nukkitx.protocol.bedrock.packet.UnknownPacket} if it
+         *                     was not decoded
+         * @param packetBuffer packet as it was received starting at the packet ID, or null if not available
+         */
+        void observe(BedrockSession session, BedrockPacket packet, @Nullable ByteBuf packetBuffer);
+    }
+
+    @FunctionalInterface
+    public interface BatchMirror {
+
+        /**
+         * Called after a batch has been forwarded. Buffers are only valid until this method returns.
+         *
+         * @param compressed wrapper as it was forwarded or null if the forwarded packets were recompressed
+         * @param packets    length-prefixed packets which were forwarded
+         */
+        void mirror(@Nullable ByteBuf compressed, List<ByteBuf> packets);
+    }
+
+    private static class Stage {
+        private final String name;
+        private final BitSet packetIds;
+        private final boolean decode;
+        private final PacketFilter filter;
+        private final PacketTransformer transformer;
+        private final PacketObserver observer;
+        private final Executor executor;
+
+        private Stage(String name, BitSet packetIds, boolean decode, PacketFilter filter, PacketTransformer transformer,
+                      PacketObserver observer, Executor executor) {
+            this.name = name;
+            this.packetIds = packetIds;
+            this.decode = decode;
+            this.filter = filter;
+            this.transformer = transformer;
+            this.observer = observer;
+            this.executor = executor;
+        }
+    }
+
+    public static class Builder {
+        // Packet IDs are a single byte.
+        private static final int MAX_PACKET_ID = 256;
+
+        private final List<Stage> stages = new ArrayList<>();
+        private BedrockSession target;
+        private BatchMirror mirror;
+
+        private Builder() {
+        }
+
+        /**
+         * Add a stage which can consume packets.
+         *
+         * @param name      stage name
+         * @param packetIds packet IDs the stage applies to or null for every packet
+         * @param filter    filter returning false for consumed packets
+         * @return this builder
+         */
+        public Builder filter(String name, @Nullable BitSet packetIds, PacketFilter filter) {
+            checkNotNull(filter, "filter");
+            this.stages.add(new Stage(name, packetIds, true, filter, null, null, null));
+            return this;
+        }
+
+        /**
+         * Add a stage which can replace packets. Packets passing through a transformer are always re-encoded.
+         *
+         * @param name        stage name
+         * @param packetIds   packet IDs the stage applies to or null for every packet
+         * @param transformer transformer returning the packet to forward
+         * @return this builder
+         */
+        public Builder transform(String name, @Nullable BitSet packetIds, PacketTransformer transformer) {
+            checkNotNull(transformer, "transformer");
+            this.stages.add(new Stage(name, packetIds, true, null, transformer, null, null));
+            return this;
+        }
+
+        /**
+         * Add a stage which looks at packets without changing them.
+         *
+         * @param name      stage name
+         * @param packetIds packet IDs the stage applies to or null for every packet
+         * @param decode    whether the observer needs the decoded packet or only its encoded form
+         * @param executor  executor to observe packets on or null to observe them on the session event loop
+         * @param observer  packet observer
+         * @return this builder
+         */
+        public Builder observe(String name, @Nullable BitSet packetIds, boolean decode, @Nullable Executor executor,
+                               PacketObserver observer) {
+            checkNotNull(observer, "observer");
+            this.stages.add(new Stage(name, packetIds, decode, null, null, observer, executor));
+            return this;
+        }
+
+        /**
+         * Forward surviving packets to the given session.
+         *
+         * @param target session to forward packets to
+         * @return this builder
+         */
+        public Builder forwardTo(@Nullable BedrockSession target) {
+            this.target = target;
+            return this;
+        }
+
+        /**
+         * Pass every forwarded batch to the given mirror as well.
+         *
+         * @param mirror batch mirror
+         * @return this builder
+         */
+        public Builder mirror(@Nullable BatchMirror mirror) {
+            this.mirror = mirror;
+            return this;
+        }
+
+        public BatchPipeline build() {
+            Stage[][] stagesById = new Stage[MAX_PACKET_ID][];
+            BitSet decodedPackets = new BitSet(MAX_PACKET_ID);
+            List<Stage> applicable = new ArrayList<>();
+            for (int id = 0; id < MAX_PACKET_ID; id++) {
+                applicable.clear();
+                for (Stage stage : this.stages) {
+                    if (stage.packetIds == null || stage.packetIds.get(id)) {
+                        applicable.add(stage);
+                        if (stage.decode) {
+                            decodedPackets.set(id);
+                        }
+                    }
+                }
+                stagesById[id] = applicable.isEmpty() ? NO_STAGES : applicable.toArray(NO_STAGES);
+            }
+            return new BatchPipeline(stagesById, decodedPackets, this.target, this.mirror);
+        }
+    }
+}
@@ -1,7 +1,10 @@
 package com.nukkitx.protocol.bedrock.handler;
 
 import com.nukkitx.protocol.bedrock.BedrockPacket;
+import com.nukkitx.protocol.bedrock.BedrockPacketCodec;
 import com.nukkitx.protocol.bedrock.BedrockSession;
+import com.nukkitx.protocol.bedrock.exception.PacketSerializeException;
+import com.nukkitx.protocol.bedrock.packet.UnknownPacket;
 import io.netty.buffer.ByteBuf;
 import io.netty.util.ReferenceCountUtil;
 import io.netty.util.internal.logging.InternalLogger;
@@ -24,6 +27,9 @@ public class DefaultBatchHandler implements BatchHandler {
             }
 
             BedrockPacketHandler handler = session.getPacketHandler();
+            if (handler != null && packet instanceof UnknownPacket) {
+                packet = decodeSkipped(session, (UnknownPacket) packet);
+            }
             boolean release = true;
             try {
                 if (handler != null && packet.handle(handler)) {
@@ -38,4 +44,26 @@ public class DefaultBatchHandler implements BatchHandler {
             }
         }
     }
+
+    /**
+     * Packets are skipped depending on the packet handler when the wrapper was received. Decode a skipped packet if an
+     * earlier packet of the wrapper changed the handler to one which does handle it, such as during login.
+     */
+    private static BedrockPacket decodeSkipped(BedrockSession session, UnknownPacket packet) {
+        int packetId = packet.getPacketId();
+        BedrockPacketCodec codec = session.getPacketCodec();
+        if (packet.getPayload() == null || codec.getPacketDefinition(packetId) == null || !session.isDecoded(packetId)) {
+            return packet;
+        }
+
+        try {
+            BedrockPacket decoded = codec.tryDecode(packet.getPayload().duplicate(), packetId, session);
+            decoded.setPacketId(packetId);
+            packet.release();
+            return decoded;
+        } catch (PacketSerializeException e) {
+            log.debug("Error occurred whilst decoding packet", e);
+            return packet;
+        }
+    }
 }
@@ -0,0 +1,21 @@
+package com.nukkitx.protocol.bedrock.util;
+
+import javax.crypto.SecretKey;
+
+/**
+ * Creates the ciphers used once encryption has been enabled on a session.
+ *
+ * @see EncryptionUtils#JCE_CIPHER_PROVIDER
+ * @see EncryptionUtils#getNativeCipherProvider()
+ */
+@FunctionalInterface
+public interface CipherProvider {
+
+    /**
+     * @param gcm     whether the session uses AES-GCM (as AES-CTR) instead of AES-CFB8
+     * @param encrypt true for the outbound cipher and false for the inbound cipher
+     * @param key     agreed key
+     * @return cipher for one direction of the session
+     */
+    SessionCipher create(boolean gcm, boolean encrypt, SecretKey key);
+}
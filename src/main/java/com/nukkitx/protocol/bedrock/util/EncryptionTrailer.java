@@ -0,0 +1,112 @@
+package com.nukkitx.protocol.bedrock.util;
+
+import io.netty.buffer.ByteBuf;
+
+import java.nio.ByteBuffer;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Computes the checksum appended to encrypted wrappers, the first 8 bytes of
+ * {@code SHA-256(counter || payload || key)}, for one direction of a session.
+ * <p>
+ * The key, counter and digest are kept in arrays owned by this instance so nothing is allocated per wrapper. The JDK
+ * digest is used as it can write the digest into an existing array, unlike the natives one. Instances are not thread
+ * safe.
+ */
+public final class EncryptionTrailer {
+    public static final int LENGTH = 8;
+
+    private static final int DIGEST_LENGTH = 32;
+
+    private final MessageDigest hash;
+    private final byte[] key;
+    private final byte[] counterBytes = new byte[8];
+    private final byte[] digest = new byte[DIGEST_LENGTH];
+    private final ByteBuffer trailer = ByteBuffer.allocate(LENGTH);
+    private long counter;
+
+    public EncryptionTrailer(byte[] key) {
+        this.key = key.clone();
+        try {
+            this.hash = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError("SHA-256 is required to be supported", e);
+        }
+    }
+
+    /**
+     * Compute the trailer of the next outgoing wrapper.
+     *
+     * @param payload readable bytes are the compressed payload
+     * @return trailer ready to be read, only valid until this method is called again
+     */
+    public ByteBuffer generate(ByteBuf payload) {
+        byte[] digest = this.digest(payload, payload.readerIndex(), payload.readableBytes());
+        this.trailer.clear();
+        this.trailer.put(digest, 0, LENGTH).flip();
+        return this.trailer;
+    }
+
+    /**
+     * Check the trailer of the next incoming wrapper.
+     *
+     * @param buffer decrypted wrapper with the trailer as its last {@link #LENGTH} readable bytes
+     * @return true if the trailer matches the payload
+     */
+    public boolean verify(ByteBuf buffer) {
+        int length = buffer.readableBytes() - LENGTH;
+        if (length < 0) {
+            return false;
+        }
+        byte[] digest = this.digest(buffer, buffer.readerIndex(), length);
+        int trailerIndex = buffer.readerIndex() + length;
+        for (int i = 0; i < LENGTH; i++) {
+            if (digest[i] != buffer.getByte(trailerIndex + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Overwrite the cached key.
+     */
+    public void destroy() {
+        Arrays.fill(this.key, (byte) 0);
+        Arrays.fill(this.digest, (byte) 0);
+    }
+
+    /**
+     * @return digest array owned by this instance, only valid until this method is called again
+     */
+    private byte[] digest(ByteBuf buffer, int index, int length) {
+        MessageDigest hash = this.hash;
+        try {
+            long counter = this.counter++;
+            for (int i = 0; i < this.counterBytes.length; i++) {
+                // Little endian
+                this.counterBytes[i] = (byte) (counter >>> (i * 8));
+            }
+
+            hash.update(this.counterBytes);
+            if (buffer.nioBufferCount() == 1) {
+                hash.update(buffer.internalNioBuffer(index, length));
+            } else {
+                // Composite buffer reassembled from several datagrams
+                for (ByteBuffer component : buffer.nioBuffers(index, length)) {
+                    hash.update(component);
+                }
+            }
+            hash.update(this.key);
+            hash.digest(this.digest, 0, DIGEST_LENGTH);
+            return this.digest;
+        } catch (DigestException e) {
+            throw new IllegalStateException("Unable to compute trailer", e);
+        } finally {
+            hash.reset();
+        }
+    }
+}
@@ -19,6 +19,7 @@ import io.netty.util.internal.logging.InternalLogger;
 import io.netty.util.internal.logging.InternalLoggerFactory;
 import lombok.experimental.UtilityClass;
 
+import javax.annotation.Nullable;
 import javax.crypto.Cipher;
 import javax.crypto.KeyAgreement;
 import javax.crypto.NoSuchPaddingException;
@@ -42,6 +43,9 @@ public class EncryptionUtils {
     private static final InternalLogger log = InternalLoggerFactory.getInstance(EncryptionUtils.class);
 
     private static final AesFactory AES_FACTORY;
+    public static final CipherProvider JCE_CIPHER_PROVIDER = (gcm, encrypt, key) ->
+            new JceSessionCipher(createCipher(gcm, encrypt, key));
+    private static final CipherProvider NATIVE_CIPHER_PROVIDER;
     private static final ECPublicKey MOJANG_PUBLIC_KEY;
     private static final SecureRandom SECURE_RANDOM = new SecureRandom();
     private static final String MOJANG_PUBLIC_KEY_BASE64 =
@@ -61,6 +65,16 @@ public class EncryptionUtils {
             aesFactory = null;
         }
         AES_FACTORY = aesFactory;
+        if (aesFactory != null) {
+            NATIVE_CIPHER_PROVIDER = (gcm, encrypt, key) -> {
+                if (gcm) {
+                    return JCE_CIPHER_PROVIDER.create(true, encrypt, key);
+                }
+                return new NativeSessionCipher(AES_FACTORY.get(encrypt, key, createIv(false, key)));
+            };
+        } else {
+            NATIVE_CIPHER_PROVIDER = null;
+        }
 
         try {
             KEY_PAIR_GEN = KeyPairGenerator.getInstance("EC");
@@ -259,22 +273,41 @@ public class EncryptionUtils {
 
     public static Cipher createCipher(boolean gcm, boolean encrypt, SecretKey key) {
         try {
-            byte[] iv;
-            String transformation;
-            if (gcm) {
-                iv = new byte[16];
-                System.arraycopy(key.getEncoded(), 0, iv, 0, 12);
-                iv[15] = 2;
-                transformation = "AES/CTR/NoPadding";
-            } else {
-                iv = Arrays.copyOf(key.getEncoded(), 16);
-                transformation = "AES/CFB8/NoPadding";
-            }
+            String transformation = gcm ? "AES/CTR/NoPadding" : "AES/CFB8/NoPadding";
             Cipher cipher = Cipher.getInstance(transformation);
-            cipher.init(encrypt ? Cipher.ENCRYPT_MODE : Cipher.DECRYPT_MODE, key, new IvParameterSpec(iv));
+            cipher.init(encrypt ? Cipher.ENCRYPT_MODE : Cipher.DECRYPT_MODE, key, createIv(gcm, key));
             return cipher;
         } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException | InvalidAlgorithmParameterException e) {
             throw new AssertionError("Unable to initialize required encryption", e);
         }
     }
+
+    private static IvParameterSpec createIv(boolean gcm, SecretKey key) {
+        byte[] iv;
+        if (gcm) {
+            iv = new byte[16];
+            System.arraycopy(key.getEncoded(), 0, iv, 0, 12);
+            iv[15] = 2;
+        } else {
+            iv = Arrays.copyOf(key.getEncoded(), 16);
+        }
+        return new IvParameterSpec(iv);
+    }
+
+    /**
+     * Cipher provider backed by the native AES-CFB8 implementation, falling back to JCE for AES-GCM sessions.
+     *
+     * @return native cipher provider or null if natives are not available on this platform
+     */
+    @Nullable
+    public static CipherProvider getNativeCipherProvider() {
+        return NATIVE_CIPHER_PROVIDER;
+    }
+
+    /**
+     * @return native cipher provider if available, otherwise the JCE provider
+     */
+    public static CipherProvider getDefaultCipherProvider() {
+        return NATIVE_CIPHER_PROVIDER != null ? NATIVE_CIPHER_PROVIDER : JCE_CIPHER_PROVIDER;
+    }
 }
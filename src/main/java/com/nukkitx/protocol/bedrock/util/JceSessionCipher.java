@@ -0,0 +1,18 @@
+package com.nukkitx.protocol.bedrock.util;
+
+import javax.crypto.Cipher;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+
+class JceSessionCipher implements SessionCipher {
+    private final Cipher cipher;
+
+    JceSessionCipher(Cipher cipher) {
+        this.cipher = cipher;
+    }
+
+    @Override
+    public void cipher(ByteBuffer input, ByteBuffer output) throws GeneralSecurityException {
+        this.cipher.update(input, output);
+    }
+}
@@ -0,0 +1,61 @@
+package com.nukkitx.protocol.bedrock.util;
+
+import com.nukkitx.natives.aes.Aes;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Cipher backed by the AES implementation of the natives library. Heap buffers are processed through a small direct
+ * scratch buffer as the native code can only access direct memory.
+ */
+class NativeSessionCipher implements SessionCipher {
+    private static final int CHUNK = 8192;
+
+    private final Aes aes;
+    private ByteBuffer scratch;
+
+    NativeSessionCipher(Aes aes) {
+        this.aes = aes;
+    }
+
+    @Override
+    public void cipher(ByteBuffer input, ByteBuffer output) {
+        if (!input.isDirect() || !output.isDirect()) {
+            this.cipherHeap(input, output);
+            return;
+        }
+
+        int length = input.remaining();
+        int inputPosition = input.position();
+        int outputPosition = output.position();
+        this.aes.cipher(input, output);
+        // Advance both buffers the same way as Cipher#update so callers can chain calls.
+        input.position(inputPosition + length);
+        output.position(outputPosition + length);
+    }
+
+    private void cipherHeap(ByteBuffer input, ByteBuffer output) {
+        if (this.scratch == null) {
+            this.scratch = ByteBuffer.allocateDirect(CHUNK);
+        }
+        while (input.hasRemaining()) {
+            int length = Math.min(CHUNK, input.remaining());
+            ByteBuffer chunk = input.duplicate();
+            chunk.limit(chunk.position() + length);
+            input.position(input.position() + length);
+
+            // Ciphering in place is copy-safe.
+            this.scratch.clear();
+            this.scratch.put(chunk).flip();
+            ByteBuffer result = this.scratch.duplicate();
+            this.aes.cipher(this.scratch, result);
+            result.clear().limit(length);
+            output.put(result);
+        }
+    }
+
+    @Override
+    public void free() {
+        this.aes.free();
+    }
+}
@@ -0,0 +1,25 @@
+package com.nukkitx.protocol.bedrock.util;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+
+/**
+ * Stream cipher used to encrypt or decrypt the wrappers of one direction of a session.
+ */
+public interface SessionCipher {
+
+    /**
+     * Encrypt or decrypt the remaining bytes of the input into the output. Input and output may share content.
+     *
+     * @param input  bytes to process
+     * @param output buffer to write the processed bytes to
+     * @throws GeneralSecurityException if the bytes could not be processed
+     */
+    void cipher(ByteBuffer input, ByteBuffer output) throws GeneralSecurityException;
+
+    /**
+     * Free resources held by the cipher. It must not be used afterwards.
+     */
+    default void free() {
+    }
+}
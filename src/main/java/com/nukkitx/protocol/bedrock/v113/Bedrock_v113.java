@@ -1,6 +1,7 @@
 package com.nukkitx.protocol.bedrock.v113;
 
 import com.nukkitx.protocol.bedrock.BedrockPacketCodec;
+import com.nukkitx.protocol.bedrock.PacketDelivery;
 import com.nukkitx.protocol.bedrock.packet.*;
 import com.nukkitx.protocol.bedrock.v113.serializer.*;
 import lombok.experimental.UtilityClass;
@@ -105,5 +106,12 @@ public class Bedrock_v113 {
             .registerPacket(StructureBlockUpdatePacket.class, StructureBlockUpdateSerializer_v113.INSTANCE, 91)
             .registerPacket(ShowStoreOfferPacket.class, ShowStoreOfferSerializer_v113.INSTANCE, 92)
             .registerPacket(PurchaseReceiptPacket.class, PurchaseReceiptSerializer_v113.INSTANCE, 93)
+            // Keep bulk data from delaying packets the player notices straight away
+            .delivery(FullChunkDataPacket.class, PacketDelivery.BULK)
+            .delivery(ResourcePackChunkDataPacket.class, PacketDelivery.BULK)
+            .delivery(CraftingDataPacket.class, PacketDelivery.BULK)
+            .delivery(MovePlayerPacket.class, PacketDelivery.INTERACTIVE)
+            .delivery(MoveEntityPacket.class, PacketDelivery.INTERACTIVE)
+            .delivery(TextPacket.class, PacketDelivery.INTERACTIVE)
             .build();
 }
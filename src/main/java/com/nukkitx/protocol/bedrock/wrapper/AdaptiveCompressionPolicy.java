@@ -0,0 +1,162 @@
+package com.nukkitx.protocol.bedrock.wrapper;
+
+import io.netty.util.internal.logging.InternalLogger;
+import io.netty.util.internal.logging.InternalLoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.nukkitx.network.util.Preconditions.checkArgument;
+
+/**
+ * Compression policy which picks a level from the size and contents of each wrapper:
+ * <ul>
+ * <li>Wrappers smaller than the stored size are not compressed, deflating a handful of bytes only costs time.</li>
+ * <li>Interactive wrappers such as movement use a fast level.</li>
+ * <li>Bulk wrappers such as chunks use a high level, they are large and compress well.</li>
+ * </ul>
+ * Both levels are shifted by a bias which is adjusted once per second from the time spent compressing and the bytes
+ * sent. The bias goes down while compression uses more CPU than allowed and goes up while more bytes are sent than
+ * the bandwidth limit.
+ */
+public class AdaptiveCompressionPolicy implements CompressionPolicy {
+    private static final InternalLogger log = InternalLoggerFactory.getInstance(AdaptiveCompressionPolicy.class);
+    private static final long INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final int MAX_LEVEL = 9;
+
+    private final int storedSize;
+    private final int interactiveLevel;
+    private final int bulkLevel;
+    private final double cpuLimit;
+    private final long bandwidthLimit;
+    // Range of the bias in which it still changes the interactive or the bulk level
+    private final int minBias;
+    private final int maxBias;
+
+    private final LongAdder[] levelCounts = new LongAdder[MAX_LEVEL + 1];
+    private final LongAdder intervalNanos = new LongAdder();
+    private final LongAdder intervalBytes = new LongAdder();
+    private final AtomicLong intervalStart = new AtomicLong(System.nanoTime());
+    private volatile int bias = 0;
+    private volatile String lastAdjustment = "none";
+
+    /**
+     * @param storedSize       wrappers with less bytes of packet data are not compressed
+     * @param interactiveLevel level of wrappers without bulk packets
+     * @param bulkLevel        level of wrappers with bulk packets
+     * @param cpuLimit         cores which may be spent compressing before lower levels are used
+     * @param bandwidthLimit   compressed bytes per second which may be sent before higher levels are used, 0 for no
+     *                         limit
+     */
+    public AdaptiveCompressionPolicy(int storedSize, int interactiveLevel, int bulkLevel, double cpuLimit,
+                                     long bandwidthLimit) {
+        checkArgument(interactiveLevel >= 1 && interactiveLevel <= MAX_LEVEL, "interactiveLevel must be between 1 and 9");
+        checkArgument(bulkLevel >= 1 && bulkLevel <= MAX_LEVEL, "bulkLevel must be between 1 and 9");
+        checkArgument(cpuLimit > 0, "cpuLimit must be positive");
+        checkArgument(bandwidthLimit >= 0, "bandwidthLimit cannot be negative");
+        this.storedSize = storedSize;
+        this.interactiveLevel = interactiveLevel;
+        this.bulkLevel = bulkLevel;
+        this.cpuLimit = cpuLimit;
+        this.bandwidthLimit = bandwidthLimit;
+        this.minBias = 1 - Math.max(interactiveLevel, bulkLevel);
+        this.maxBias = MAX_LEVEL - Math.min(interactiveLevel, bulkLevel);
+        for (int i = 0; i < this.levelCounts.length; i++) {
+            this.levelCounts[i] = new LongAdder();
+        }
+    }
+
+    public AdaptiveCompressionPolicy() {
+        this(256, 1, 7, 0.5, 0);
+    }
+
+    @Override
+    public int getLevel(int uncompressedSize, boolean bulk) {
+        int level;
+        if (uncompressedSize < this.storedSize) {
+            level = 0;
+        } else {
+            int base = bulk ? this.bulkLevel : this.interactiveLevel;
+            level = Math.max(1, Math.min(MAX_LEVEL, base + this.bias));
+        }
+        this.levelCounts[level].increment();
+        return level;
+    }
+
+    @Override
+    public void onCompressed(int level, int uncompressedSize, int compressedSize, long nanos) {
+        this.intervalNanos.add(nanos);
+        this.intervalBytes.add(compressedSize);
+
+        long start = this.intervalStart.get();
+        long now = System.nanoTime();
+        long elapsed = now - start;
+        if (elapsed >= INTERVAL_NANOS && this.intervalStart.compareAndSet(start, now)) {
+            this.adjust(this.intervalNanos.sumThenReset() / (double) elapsed,
+                    this.intervalBytes.sumThenReset() * INTERVAL_NANOS / elapsed);
+        }
+    }
+
+    private void adjust(double cpu, long bandwidth) {
+        int bias = this.bias;
+        String reason;
+        if (cpu > this.cpuLimit && bias > this.minBias) {
+            bias--;
+            reason = String.format("compression used %.2f cores, above the limit of %.2f", cpu, this.cpuLimit);
+        } else if (this.bandwidthLimit > 0 && bandwidth > this.bandwidthLimit && bias < this.maxBias
+                && cpu < this.cpuLimit / 2) {
+            bias++;
+            reason = String.format("sent %d bytes/s, above the limit of %d", bandwidth, this.bandwidthLimit);
+        } else if (bias < 0 && cpu < this.cpuLimit / 2) {
+            bias++;
+            reason = String.format("compression used %.2f cores, well below the limit of %.2f", cpu, this.cpuLimit);
+        } else if (bias > 0 && bandwidth < this.bandwidthLimit / 2) {
+            bias--;
+            reason = String.format("sent %d bytes/s, well below the limit of %d", bandwidth, this.bandwidthLimit);
+        } else {
+            return;
+        }
+        this.bias = bias;
+        this.lastAdjustment = "bias " + bias + ": " + reason;
+        log.debug("Compression level bias changed to {} as {}", bias, reason);
+    }
+
+    /**
+     * @return levels added to the interactive and bulk levels
+     */
+    public int getBias() {
+        return this.bias;
+    }
+
+    /**
+     * @param level compression level
+     * @return number of wrappers compressed with the level
+     */
+    public long getLevelCount(int level) {
+        return this.levelCounts[level].sum();
+    }
+
+    /**
+     * @return the last change of the bias and why it was made
+     */
+    public String getLastAdjustment() {
+        return this.lastAdjustment;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder levels = new StringBuilder();
+        for (int level = 0; level <= MAX_LEVEL; level++) {
+            long count = this.levelCounts[level].sum();
+            if (count > 0) {
+                if (levels.length() > 0) {
+                    levels.append(", ");
+                }
+                levels.append(level).append('=').append(count);
+            }
+        }
+        return "AdaptiveCompressionPolicy(bias=" + this.bias + ", levels={" + levels + "}, lastAdjustment="
+                + this.lastAdjustment + ")";
+    }
+}
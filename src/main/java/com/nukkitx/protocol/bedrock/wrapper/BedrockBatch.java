@@ -0,0 +1,83 @@
+package com.nukkitx.protocol.bedrock.wrapper;
+
+import com.nukkitx.network.VarInts;
+import com.nukkitx.protocol.bedrock.BedrockPacket;
+import io.netty.buffer.ByteBuf;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Packets read from a single wrapper along with the encoded form each packet was received in.
+ * <p>
+ * Payloads are length-prefixed slices of the decompressed wrapper and can be sent again without being re-encoded.
+ * They are only valid until the batch is released and must be copied if they are needed afterwards.
+ */
+public final class BedrockBatch extends AbstractList<BedrockPacket> implements RandomAccess {
+    private final List<BedrockPacket> packets = new ObjectArrayList<>();
+    private final List<ByteBuf> payloads = new ObjectArrayList<>();
+    private ByteBuf buffer;
+
+    void setBuffer(ByteBuf buffer) {
+        this.buffer = buffer;
+    }
+
+    void add(BedrockPacket packet, ByteBuf payload) {
+        this.packets.add(packet);
+        this.payloads.add(payload);
+    }
+
+    @Override
+    public BedrockPacket get(int index) {
+        return this.packets.get(index);
+    }
+
+    @Override
+    public int size() {
+        return this.packets.size();
+    }
+
+    /**
+     * Encoded packet as it appeared in the wrapper, including its length prefix.
+     *
+     * @param index index of the packet
+     * @return slice of the decompressed wrapper
+     */
+    public ByteBuf getPayload(int index) {
+        return this.payloads.get(index);
+    }
+
+    /**
+     * Encoded packet as it appeared in the wrapper, without its length prefix.
+     *
+     * @param index index of the packet
+     * @return slice of the decompressed wrapper starting at the packet ID
+     */
+    public ByteBuf getPacketBuffer(int index) {
+        ByteBuf payload = this.payloads.get(index).duplicate();
+        VarInts.readUnsignedInt(payload);
+        return payload.slice();
+    }
+
+    /**
+     * Total size of the decompressed wrapper.
+     *
+     * @return uncompressed size in bytes
+     */
+    public int getUncompressedSize() {
+        return this.buffer == null ? 0 : this.buffer.writerIndex();
+    }
+
+    /**
+     * Release the decompressed wrapper. Packets are owned by the batch handler and are not released.
+     */
+    public void release() {
+        this.payloads.clear();
+        if (this.buffer != null) {
+            this.buffer.release();
+            this.buffer = null;
+        }
+    }
+}
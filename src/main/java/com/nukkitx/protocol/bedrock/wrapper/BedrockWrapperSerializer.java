@@ -3,6 +3,7 @@ package com.nukkitx.protocol.bedrock.wrapper;
 import com.nukkitx.protocol.bedrock.BedrockPacket;
 import com.nukkitx.protocol.bedrock.BedrockPacketCodec;
 import com.nukkitx.protocol.bedrock.BedrockSession;
+import com.nukkitx.protocol.bedrock.exception.PacketSerializeException;
 import io.netty.buffer.ByteBuf;
 import io.netty.util.internal.logging.InternalLogger;
 import io.netty.util.internal.logging.InternalLoggerFactory;
@@ -21,6 +22,27 @@ public abstract class BedrockWrapperSerializer {
      */
     public abstract void serialize(ByteBuf buffer, BedrockPacketCodec codec, Collection<BedrockPacket> packets, int level, BedrockSession session);
 
+    /**
+     * Compress packets which are already encoded to a buffer for sending
+     *
+     * @param buffer         buffer to write batched packets to
+     * @param encodedPackets length-prefixed packets as found in {@link BedrockBatch#getPayload(int)}
+     * @param level          compression level
+     */
+    public abstract void serializeEncoded(ByteBuf buffer, Collection<ByteBuf> encodedPackets, int level);
+
+    /**
+     * Encode a packet with its length prefix, ready to be passed to {@link #serializeEncoded(ByteBuf, Collection, int)}
+     *
+     * @param buffer  buffer to append the packet to. Left unchanged if the packet cannot be encoded.
+     * @param codec   packet codec
+     * @param packet  packet to encode
+     * @param session session the packet is sent by
+     * @throws PacketSerializeException if the packet cannot be encoded
+     */
+    public abstract void writePacket(ByteBuf buffer, BedrockPacketCodec codec, BedrockPacket packet,
+                                     BedrockSession session) throws PacketSerializeException;
+
     /**
      * Decompress packets to handle
      *
@@ -29,4 +51,13 @@ public abstract class BedrockWrapperSerializer {
      * @param packets received packets
      */
     public abstract void deserialize(ByteBuf buffer, BedrockPacketCodec codec, Collection<BedrockPacket> packets, BedrockSession session);
+
+    /**
+     * Decompress packets to handle, keeping the encoded form of each packet
+     *
+     * @param buffer buffer to write batched packets to
+     * @param codec  packet codec
+     * @param batch  received packets and their encoded form. The caller is responsible for releasing it.
+     */
+    public abstract void deserialize(ByteBuf buffer, BedrockPacketCodec codec, BedrockBatch batch, BedrockSession session);
 }
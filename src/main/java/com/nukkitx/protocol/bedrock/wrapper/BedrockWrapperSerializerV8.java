@@ -5,10 +5,12 @@ import com.nukkitx.protocol.bedrock.BedrockPacket;
 import com.nukkitx.protocol.bedrock.BedrockPacketCodec;
 import com.nukkitx.protocol.bedrock.BedrockSession;
 import com.nukkitx.protocol.bedrock.exception.PacketSerializeException;
+import com.nukkitx.protocol.bedrock.packet.UnknownPacket;
 import com.nukkitx.protocol.util.Zlib;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.ByteBufUtil;
+import io.netty.util.concurrent.FastThreadLocal;
 import lombok.AccessLevel;
 import lombok.NoArgsConstructor;
 
@@ -20,43 +22,179 @@ public class BedrockWrapperSerializerV8 extends BedrockWrapperSerializer {
     public static final BedrockWrapperSerializerV8 INSTANCE = new BedrockWrapperSerializerV8();
 
     private static final Zlib ZLIB = Zlib.DEFAULT;
+    // Length prefix reserved before encoding a packet, enough for packets up to 16KB.
+    private static final int RESERVED_LENGTH = 2;
+    // Scratch buffers which grew larger than this for an unusually large batch are not kept.
+    private static final int MAX_SCRATCH_CAPACITY = 1024 * 1024;
+    private static final int MAX_INFLATED_SIZE = 2 * 1024 * 1024; // 2MBs
+    private static final int DEFAULT_INFLATED_SIZE = 8192;
+    // Buffer wrappers are inflated to, reused for as long as nothing retains a slice of it beyond its batch.
+    private static final FastThreadLocal<ByteBuf> INFLATE_BUFFER = new FastThreadLocal<ByteBuf>() {
+        @Override
+        protected ByteBuf initialValue() {
+            return ByteBufAllocator.DEFAULT.directBuffer(DEFAULT_INFLATED_SIZE);
+        }
+
+        @Override
+        protected void onRemoval(ByteBuf value) {
+            value.release();
+        }
+    };
+    private static final FastThreadLocal<ByteBuf> SCRATCH = new FastThreadLocal<ByteBuf>() {
+        @Override
+        protected ByteBuf initialValue() {
+            return ByteBufAllocator.DEFAULT.directBuffer(8192);
+        }
+
+        @Override
+        protected void onRemoval(ByteBuf value) {
+            value.release();
+        }
+    };
 
     @Override
     public void serialize(ByteBuf buffer, BedrockPacketCodec codec, Collection<BedrockPacket> packets, int level, BedrockSession session) {
-        ByteBuf uncompressed = ByteBufAllocator.DEFAULT.ioBuffer(packets.size() << 3);
+        ByteBuf uncompressed = SCRATCH.get();
         try {
             for (BedrockPacket packet : packets) {
-                ByteBuf packetBuffer = ByteBufAllocator.DEFAULT.ioBuffer();
                 try {
-                    int id = codec.getId(packet);
-                    packetBuffer.writeByte(id);
-                    codec.tryEncode(packetBuffer, packet, session);
-
-                    VarInts.writeUnsignedInt(uncompressed, packetBuffer.readableBytes());
-                    uncompressed.writeBytes(packetBuffer);
+                    this.writePacket(uncompressed, codec, packet, session);
                 } catch (PacketSerializeException e) {
                     log.error("Error occurred whilst encoding " + packet.getClass().getSimpleName(), e);
-                } finally {
-                    packetBuffer.release();
                 }
             }
             ZLIB.deflate(uncompressed, buffer, level);
         } catch (DataFormatException e) {
             throw new RuntimeException("Unable to deflate buffer data", e);
         } finally {
-            uncompressed.release();
+            releaseScratch(uncompressed);
+        }
+    }
+
+    @Override
+    public void serializeEncoded(ByteBuf buffer, Collection<ByteBuf> encodedPackets, int level) {
+        try {
+            if (encodedPackets.size() == 1) {
+                // Already contiguous, such as the pending packets of a session
+                ZLIB.deflate(encodedPackets.iterator().next(), buffer, level);
+                return;
+            }
+
+            ByteBuf uncompressed = SCRATCH.get();
+            try {
+                for (ByteBuf encodedPacket : encodedPackets) {
+                    uncompressed.writeBytes(encodedPacket, encodedPacket.readerIndex(), encodedPacket.readableBytes());
+                }
+                ZLIB.deflate(uncompressed, buffer, level);
+            } finally {
+                releaseScratch(uncompressed);
+            }
+        } catch (DataFormatException e) {
+            throw new RuntimeException("Unable to deflate buffer data", e);
+        }
+    }
+
+    /**
+     * Encode the packet straight into the buffer after a reserved length prefix, which is filled in once the length is
+     * known. The packet only has to be moved if its length prefix does not fit the reserved space exactly.
+     */
+    @Override
+    public void writePacket(ByteBuf buffer, BedrockPacketCodec codec, BedrockPacket packet, BedrockSession session)
+            throws PacketSerializeException {
+        int start = buffer.writerIndex();
+        int packetStart = start + RESERVED_LENGTH;
+        try {
+            int id = codec.getId(packet);
+            buffer.writeZero(RESERVED_LENGTH);
+            buffer.writeByte(id);
+            codec.tryEncode(buffer, packet, session);
+        } catch (PacketSerializeException | RuntimeException e) {
+            buffer.writerIndex(start);
+            throw e;
+        }
+
+        int length = buffer.writerIndex() - packetStart;
+        int lengthSize = sizeOfUnsignedInt(length);
+        if (lengthSize > RESERVED_LENGTH) {
+            // Rare for large packets only, so just copy the packet out instead of moving it up in place.
+            ByteBuf packetBuffer = buffer.copy(packetStart, length);
+            try {
+                buffer.writerIndex(start);
+                VarInts.writeUnsignedInt(buffer, length);
+                buffer.writeBytes(packetBuffer);
+            } finally {
+                packetBuffer.release();
+            }
+            return;
+        }
+        if (lengthSize < RESERVED_LENGTH) {
+            // Moving down to a lower index copies front to back so the packet never overwrites itself.
+            buffer.setBytes(start + lengthSize, buffer, packetStart, length);
+        }
+        buffer.writerIndex(start);
+        VarInts.writeUnsignedInt(buffer, length);
+        buffer.writerIndex(start + lengthSize + length);
+    }
+
+    /**
+     * Take the inflate buffer of this thread. It is handed back by releasing it, which usually happens when the batch
+     * it belongs to is released.
+     */
+    private static ByteBuf takeInflateBuffer(int expectedSize) {
+        ByteBuf buffer = INFLATE_BUFFER.get();
+        // Packets of an earlier batch may still be holding on to it, leave it to them and keep a new one instead.
+        // A buffer which grew past the maximum is not kept around for small wrappers either.
+        if (buffer.refCnt() != 1 || (buffer.capacity() > MAX_INFLATED_SIZE && expectedSize <= DEFAULT_INFLATED_SIZE)) {
+            ByteBuf replacement = ByteBufAllocator.DEFAULT.directBuffer(expectedSize);
+            INFLATE_BUFFER.set(replacement);
+            buffer.release();
+            buffer = replacement;
+        }
+        buffer.clear();
+        buffer.ensureWritable(expectedSize);
+        return buffer.retain();
+    }
+
+    private static int sizeOfUnsignedInt(int value) {
+        return (31 - Integer.numberOfLeadingZeros(value | 1)) / 7 + 1;
+    }
+
+    private static void releaseScratch(ByteBuf scratch) {
+        scratch.clear();
+        if (scratch.capacity() > MAX_SCRATCH_CAPACITY) {
+            SCRATCH.remove();
         }
     }
 
     @Override
     public void deserialize(ByteBuf compressed, BedrockPacketCodec codec, Collection<BedrockPacket> packets, BedrockSession session) {
-        ByteBuf decompressed = ByteBufAllocator.DEFAULT.ioBuffer();
+        BedrockBatch batch = new BedrockBatch();
         try {
-            ZLIB.inflate(compressed, decompressed, 2 * 1024 * 1024); // 2MBs
+            this.deserialize(compressed, codec, batch, session);
+            packets.addAll(batch);
+        } finally {
+            batch.release();
+        }
+    }
+
+    @Override
+    public void deserialize(ByteBuf compressed, BedrockPacketCodec codec, BedrockBatch batch, BedrockSession session) {
+        int compressedSize = compressed.readableBytes();
+        InflateSizePredictor predictor = session == null ? null : session.getInflateSizePredictor();
+        int expectedSize = predictor == null ? DEFAULT_INFLATED_SIZE : predictor.predict(compressedSize);
+        ByteBuf decompressed = takeInflateBuffer(Math.min(expectedSize, MAX_INFLATED_SIZE));
+        batch.setBuffer(decompressed);
+        try {
+            ZLIB.inflate(compressed, decompressed, MAX_INFLATED_SIZE);
+            if (predictor != null) {
+                predictor.record(compressedSize, decompressed.writerIndex());
+            }
 
             while (decompressed.isReadable()) {
+                int start = decompressed.readerIndex();
                 int length = VarInts.readUnsignedInt(decompressed);
                 ByteBuf packetBuffer = decompressed.readSlice(length);
+                ByteBuf payload = decompressed.slice(start, decompressed.readerIndex() - start);
 
                 if (!packetBuffer.isReadable()) {
                     throw new DataFormatException("Packet cannot be empty");
@@ -64,9 +202,17 @@ public class BedrockWrapperSerializerV8 extends BedrockWrapperSerializer {
 
                 try {
                     int packetId = packetBuffer.readUnsignedByte();
-                    BedrockPacket packet = codec.tryDecode(packetBuffer, packetId, session);
+                    BedrockPacket packet;
+                    if (session == null || session.isDecoded(packetId)) {
+                        packet = codec.tryDecode(packetBuffer, packetId, session);
+                    } else {
+                        // Nobody is interested in the contents. Keep the payload so it can be forwarded as is.
+                        UnknownPacket rawPacket = new UnknownPacket();
+                        rawPacket.setPayload(packetBuffer.readRetainedSlice(packetBuffer.readableBytes()));
+                        packet = rawPacket;
+                    }
                     packet.setPacketId(packetId);
-                    packets.add(packet);
+                    batch.add(packet, payload);
                 } catch (PacketSerializeException e) {
                     log.debug("Error occurred whilst decoding packet", e);
                     if (log.isTraceEnabled()) {
@@ -76,8 +222,6 @@ public class BedrockWrapperSerializerV8 extends BedrockWrapperSerializer {
             }
         } catch (DataFormatException e) {
             throw new RuntimeException("Unable to inflate buffer data", e);
-        } finally {
-            decompressed.release();
         }
     }
 }
@@ -0,0 +1,220 @@
+package com.nukkitx.protocol.bedrock.wrapper;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+
+import javax.annotation.Nullable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.nukkitx.network.util.Preconditions.checkArgument;
+
+/**
+ * Cache of compressed wrappers which can be shared between sessions, so a large payload every session sends, such as
+ * crafting data or available commands, is only deflated once. Wrappers are looked up by a hash of their packet data
+ * and the packet data is kept alongside the compressed wrapper, so a wrapper is only reused for exactly the same bytes.
+ * <p>
+ * The least recently used wrappers are evicted once the packet data and compressed wrappers exceed the byte budget.
+ */
+public class CompressedPayloadCache {
+    private static final long PRIME = 0x9E3779B97F4A7C15L;
+
+    private final long maxBytes;
+    private final int minSize;
+    // Access ordered, guarded by itself
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxBytes bytes of packet data and compressed wrappers which may be cached
+     * @param minSize  bytes of packet data from which wrappers are cached, smaller wrappers are cheap to compress
+     */
+    public CompressedPayloadCache(long maxBytes, int minSize) {
+        checkArgument(maxBytes > 0, "maxBytes must be positive");
+        checkArgument(minSize > 0, "minSize must be positive");
+        this.maxBytes = maxBytes;
+        this.minSize = minSize;
+    }
+
+    /**
+     * @param size bytes of packet data
+     * @return true if wrappers of the size are cached
+     */
+    public boolean isCacheable(int size) {
+        // Twice the size as the packet data is kept as well
+        return size >= this.minSize && size * 2L <= this.maxBytes;
+    }
+
+    /**
+     * Find the compressed wrapper of packets.
+     *
+     * @param encoded length-prefixed packets
+     * @return compressed wrapper which the caller has to release, or null if it is not cached
+     */
+    @Nullable
+    public ByteBuf get(ByteBuf encoded) {
+        Key key = new Key(hash(encoded), encoded.readableBytes());
+        synchronized (this.entries) {
+            Entry entry = this.entries.get(key);
+            if (entry != null && ByteBufUtil.equals(entry.encoded, encoded)) {
+                this.hits.increment();
+                return entry.compressed.retainedDuplicate();
+            }
+        }
+        this.misses.increment();
+        return null;
+    }
+
+    /**
+     * Cache the compressed wrapper of packets. Both buffers are copied.
+     *
+     * @param encoded    length-prefixed packets
+     * @param compressed compressed wrapper of the packets
+     */
+    public void put(ByteBuf encoded, ByteBuf compressed) {
+        if (!this.isCacheable(encoded.readableBytes())) {
+            return;
+        }
+        Key key = new Key(hash(encoded), encoded.readableBytes());
+        Entry entry = new Entry(copy(encoded), copy(compressed));
+
+        Entry replaced;
+        synchronized (this.entries) {
+            replaced = this.entries.put(key, entry);
+            this.bytes += entry.size();
+            if (replaced != null) {
+                this.bytes -= replaced.size();
+            }
+
+            Iterator<Entry> iterator = this.entries.values().iterator();
+            while (this.bytes > this.maxBytes && iterator.hasNext()) {
+                Entry evicted = iterator.next();
+                iterator.remove();
+                this.bytes -= evicted.size();
+                evicted.release();
+                this.evictions.increment();
+            }
+        }
+        if (replaced != null) {
+            replaced.release();
+        }
+    }
+
+    /**
+     * Evict every cached wrapper.
+     */
+    public void clear() {
+        synchronized (this.entries) {
+            for (Entry entry : this.entries.values()) {
+                entry.release();
+            }
+            this.entries.clear();
+            this.bytes = 0;
+        }
+    }
+
+    public long getHitCount() {
+        return this.hits.sum();
+    }
+
+    public long getMissCount() {
+        return this.misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return this.evictions.sum();
+    }
+
+    /**
+     * @return bytes of packet data and compressed wrappers which are cached
+     */
+    public long getSize() {
+        synchronized (this.entries) {
+            return this.bytes;
+        }
+    }
+
+    @Override
+    public String toString() {
+        int count;
+        long size;
+        synchronized (this.entries) {
+            count = this.entries.size();
+            size = this.bytes;
+        }
+        return "CompressedPayloadCache(entries=" + count + ", bytes=" + size + ", hits=" + this.hits.sum() +
+                ", misses=" + this.misses.sum() + ", evictions=" + this.evictions.sum() + ")";
+    }
+
+    private static ByteBuf copy(ByteBuf buffer) {
+        ByteBuf copy = ByteBufAllocator.DEFAULT.directBuffer(buffer.readableBytes());
+        copy.writeBytes(buffer, buffer.readerIndex(), buffer.readableBytes());
+        return copy;
+    }
+
+    /**
+     * 64 bit hash of the readable bytes, read eight at a time. Collisions only cost a cache miss as the packet data is
+     * compared as well.
+     */
+    private static long hash(ByteBuf buffer) {
+        int index = buffer.readerIndex();
+        int end = buffer.writerIndex();
+        long hash = buffer.readableBytes();
+        for (; index + Long.BYTES <= end; index += Long.BYTES) {
+            hash = (hash ^ buffer.getLong(index)) * PRIME;
+            hash ^= hash >>> 29;
+        }
+        for (; index < end; index++) {
+            hash = (hash ^ buffer.getByte(index)) * PRIME;
+        }
+        return hash ^ (hash >>> 32);
+    }
+
+    private static final class Key {
+        private final long hash;
+        private final int length;
+
+        private Key(long hash, int length) {
+            this.hash = hash;
+            this.length = length;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key that = (Key) o;
+            return this.hash == that.hash && this.length == that.length;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) this.hash;
+        }
+    }
+
+    private static final class Entry {
+        private final ByteBuf encoded;
+        private final ByteBuf compressed;
+
+        private Entry(ByteBuf encoded, ByteBuf compressed) {
+            this.encoded = encoded;
+            this.compressed = compressed;
+        }
+
+        private long size() {
+            return (long) this.encoded.readableBytes() + this.compressed.readableBytes();
+        }
+
+        private void release() {
+            this.encoded.release();
+            this.compressed.release();
+        }
+    }
+}
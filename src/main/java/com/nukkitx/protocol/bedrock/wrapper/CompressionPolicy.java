@@ -0,0 +1,26 @@
+package com.nukkitx.protocol.bedrock.wrapper;
+
+/**
+ * Picks the compression level of each wrapper a session sends. Policies may be shared between sessions and have to be
+ * thread safe.
+ */
+public interface CompressionPolicy {
+
+    /**
+     * @param uncompressedSize bytes of packet data in the wrapper
+     * @param bulk             whether the wrapper holds bulk packets such as chunks
+     * @return compression level between 0 and 9
+     */
+    int getLevel(int uncompressedSize, boolean bulk);
+
+    /**
+     * Called after a wrapper has been compressed with the level returned by {@link #getLevel(int, boolean)}.
+     *
+     * @param level            level the wrapper was compressed with
+     * @param uncompressedSize bytes of packet data in the wrapper
+     * @param compressedSize   bytes of the compressed wrapper
+     * @param nanos            time spent compressing
+     */
+    default void onCompressed(int level, int uncompressedSize, int compressedSize, long nanos) {
+    }
+}
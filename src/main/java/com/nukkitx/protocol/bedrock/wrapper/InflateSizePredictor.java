@@ -0,0 +1,48 @@
+package com.nukkitx.protocol.bedrock.wrapper;
+
+/**
+ * Predicts the inflated size of a wrapper from its compressed size, so the buffer it is inflated to rarely has to
+ * grow. Wrappers are grouped by the power of two of their compressed size and each group remembers what its wrappers
+ * inflated to recently. A prediction which was too small is raised straight away, one which was too large is lowered
+ * gradually.
+ * <p>
+ * Instances are not thread safe and are meant to be used by a single session.
+ */
+public final class InflateSizePredictor {
+    private static final int MIN_SIZE = 1024;
+    // Ratio assumed before a group has seen any wrappers
+    private static final int INITIAL_RATIO = 4;
+
+    private final int[] predictions = new int[Integer.SIZE];
+
+    /**
+     * @param compressedSize size of the compressed wrapper
+     * @return expected inflated size
+     */
+    public int predict(int compressedSize) {
+        int prediction = this.predictions[bucket(compressedSize)];
+        if (prediction == 0) {
+            prediction = (int) Math.min((long) compressedSize * INITIAL_RATIO, Integer.MAX_VALUE);
+        }
+        return Math.max(MIN_SIZE, prediction);
+    }
+
+    /**
+     * @param compressedSize size of the compressed wrapper
+     * @param inflatedSize   size the wrapper inflated to
+     */
+    public void record(int compressedSize, int inflatedSize) {
+        int bucket = bucket(compressedSize);
+        int prediction = this.predictions[bucket];
+        if (inflatedSize > prediction) {
+            prediction = inflatedSize;
+        } else {
+            prediction -= (prediction - inflatedSize) >> 3;
+        }
+        this.predictions[bucket] = prediction;
+    }
+
+    private static int bucket(int compressedSize) {
+        return Integer.SIZE - 1 - Integer.numberOfLeadingZeros(compressedSize | 1);
+    }
+}
@@ -0,0 +1,146 @@
+package com.nukkitx.protocol.util;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Backend using {@link java.util.zip}, available on every platform. Java 8 only takes arrays, so data in direct
+ * buffers is copied in and out through small arrays, a chunk at a time.
+ */
+public class JdkZlibBackend implements ZlibBackend {
+    public static final JdkZlibBackend INSTANCE = new JdkZlibBackend();
+
+    private static final int CHUNK = 8192;
+
+    private final ThreadLocal<Inflater> inflaterLocal = inflaterLocal(false);
+    private final ThreadLocal<Inflater> rawInflaterLocal = inflaterLocal(true);
+    private final ThreadLocal<Deflater> deflaterLocal = deflaterLocal(false);
+    private final ThreadLocal<Deflater> rawDeflaterLocal = deflaterLocal(true);
+    private final ThreadLocal<byte[]> inputLocal = chunkLocal();
+    private final ThreadLocal<byte[]> chunkLocal = chunkLocal();
+
+    private JdkZlibBackend() {
+    }
+
+    private static ThreadLocal<Inflater> inflaterLocal(boolean raw) {
+        // Required for Android API versions prior to 26.
+        return new ThreadLocal<Inflater>() {
+            @Override
+            protected Inflater initialValue() {
+                return new Inflater(raw);
+            }
+        };
+    }
+
+    private static ThreadLocal<Deflater> deflaterLocal(boolean raw) {
+        return new ThreadLocal<Deflater>() {
+            @Override
+            protected Deflater initialValue() {
+                return new Deflater(7, raw);
+            }
+        };
+    }
+
+    private static ThreadLocal<byte[]> chunkLocal() {
+        return new ThreadLocal<byte[]>() {
+            @Override
+            protected byte[] initialValue() {
+                return new byte[CHUNK];
+            }
+        };
+    }
+
+    @Override
+    public String getName() {
+        return "jdk";
+    }
+
+    @Override
+    public void inflate(ByteBuf compressed, ByteBuf decompressed, int maxSize, boolean raw) throws DataFormatException {
+        Inflater inflater = (raw ? this.rawInflaterLocal : this.inflaterLocal).get();
+        inflater.reset();
+        int inputIndex = compressed.readerIndex();
+        int inputEnd = compressed.writerIndex();
+        if (compressed.hasArray()) {
+            inflater.setInput(compressed.array(), compressed.arrayOffset() + inputIndex, inputEnd - inputIndex);
+            inputIndex = inputEnd;
+        }
+
+        byte[] input = this.inputLocal.get();
+        byte[] chunk = this.chunkLocal.get();
+        while (!inflater.finished()) {
+            if (inflater.needsInput()) {
+                if (inputIndex >= inputEnd) {
+                    // Input has been used up
+                    break;
+                }
+                int length = Math.min(CHUNK, inputEnd - inputIndex);
+                compressed.getBytes(inputIndex, input, 0, length);
+                inflater.setInput(input, 0, length);
+                inputIndex += length;
+            }
+
+            decompressed.ensureWritable(CHUNK);
+            int written;
+            if (decompressed.hasArray()) {
+                int index = decompressed.writerIndex();
+                written = inflater.inflate(decompressed.array(), decompressed.arrayOffset() + index,
+                        decompressed.writableBytes());
+                decompressed.writerIndex(index + written);
+            } else {
+                written = inflater.inflate(chunk, 0, Math.min(CHUNK, decompressed.writableBytes()));
+                decompressed.writeBytes(chunk, 0, written);
+            }
+            if (written < 1 && inflater.needsDictionary()) {
+                throw new DataFormatException("Preset dictionaries are not supported");
+            }
+            if (maxSize > 0 && decompressed.writerIndex() >= maxSize) {
+                throw new DataFormatException("Inflated data exceeds maximum size");
+            }
+        }
+    }
+
+    @Override
+    public void deflate(ByteBuf uncompressed, ByteBuf compressed, int level, boolean raw) {
+        Deflater deflater = (raw ? this.rawDeflaterLocal : this.deflaterLocal).get();
+        deflater.reset();
+        deflater.setLevel(level);
+        int inputIndex = uncompressed.readerIndex();
+        int inputEnd = uncompressed.writerIndex();
+        if (uncompressed.hasArray()) {
+            deflater.setInput(uncompressed.array(), uncompressed.arrayOffset() + inputIndex, inputEnd - inputIndex);
+            inputIndex = inputEnd;
+        }
+        if (inputIndex >= inputEnd) {
+            deflater.finish();
+        }
+
+        byte[] input = this.inputLocal.get();
+        byte[] chunk = this.chunkLocal.get();
+        while (!deflater.finished()) {
+            if (inputIndex < inputEnd && deflater.needsInput()) {
+                int length = Math.min(CHUNK, inputEnd - inputIndex);
+                uncompressed.getBytes(inputIndex, input, 0, length);
+                deflater.setInput(input, 0, length);
+                inputIndex += length;
+                if (inputIndex >= inputEnd) {
+                    deflater.finish();
+                }
+            }
+
+            compressed.ensureWritable(CHUNK);
+            if (compressed.hasArray()) {
+                int index = compressed.writerIndex();
+                int written = deflater.deflate(compressed.array(), compressed.arrayOffset() + index,
+                        compressed.writableBytes());
+                compressed.writerIndex(index + written);
+            } else {
+                int written = deflater.deflate(chunk, 0, CHUNK);
+                compressed.writeBytes(chunk, 0, written);
+            }
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.nukkitx.protocol.util;
+
+import com.nukkitx.natives.util.Natives;
+import com.nukkitx.natives.zlib.Deflater;
+import com.nukkitx.natives.zlib.Inflater;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+
+/**
+ * Backend using the zlib of the natives library, which works on direct buffers without copying them to the heap.
+ */
+public class NativeZlibBackend implements ZlibBackend {
+    public static final NativeZlibBackend INSTANCE = new NativeZlibBackend();
+
+    private static final int CHUNK = 8192;
+
+    private final ThreadLocal<Inflater> inflaterLocal = inflaterLocal(false);
+    private final ThreadLocal<Inflater> rawInflaterLocal = inflaterLocal(true);
+    private final ThreadLocal<Deflater> deflaterLocal = deflaterLocal(false);
+    private final ThreadLocal<Deflater> rawDeflaterLocal = deflaterLocal(true);
+
+    private NativeZlibBackend() {
+    }
+
+    private static ThreadLocal<Inflater> inflaterLocal(boolean raw) {
+        // Required for Android API versions prior to 26.
+        return new ThreadLocal<Inflater>() {
+            @Override
+            public Inflater initialValue() {
+                return Natives.ZLIB.get().create(raw);
+            }
+        };
+    }
+
+    private static ThreadLocal<Deflater> deflaterLocal(boolean raw) {
+        return new ThreadLocal<Deflater>() {
+            @Override
+            protected Deflater initialValue() {
+                return Natives.ZLIB.get().create(7, raw);
+            }
+        };
+    }
+
+    @Override
+    public String getName() {
+        return "native";
+    }
+
+    /**
+     * Composite buffers are inflated component by component and heap components are copied through a small direct
+     * buffer, so the input is never flattened into one temporary buffer.
+     */
+    @Override
+    public void inflate(ByteBuf compressed, ByteBuf decompressed, int maxSize, boolean raw) throws DataFormatException {
+        Inflater inflater = (raw ? this.rawInflaterLocal : this.inflaterLocal).get();
+        inflater.reset();
+
+        ByteBuffer[] inputs;
+        if (compressed.nioBufferCount() == 1) {
+            inputs = new ByteBuffer[]{compressed.internalNioBuffer(compressed.readerIndex(), compressed.readableBytes())};
+        } else {
+            inputs = compressed.nioBuffers(compressed.readerIndex(), compressed.readableBytes());
+        }
+
+        ByteBuf scratch = null;
+        try {
+            for (ByteBuffer input : inputs) {
+                if (input.isDirect()) {
+                    this.inflate(inflater, input, decompressed, maxSize);
+                } else {
+                    if (scratch == null) {
+                        scratch = ByteBufAllocator.DEFAULT.directBuffer(CHUNK, CHUNK);
+                    }
+                    while (input.hasRemaining() && !inflater.finished()) {
+                        int length = Math.min(CHUNK, input.remaining());
+                        ByteBuffer chunk = input.duplicate();
+                        chunk.limit(chunk.position() + length);
+                        input.position(input.position() + length);
+
+                        ByteBuffer direct = scratch.internalNioBuffer(0, length);
+                        direct.put(chunk).flip();
+                        this.inflate(inflater, direct, decompressed, maxSize);
+                    }
+                }
+                if (inflater.finished()) {
+                    break;
+                }
+            }
+        } finally {
+            if (scratch != null) {
+                scratch.release();
+            }
+        }
+    }
+
+    private void inflate(Inflater inflater, ByteBuffer input, ByteBuf decompressed, int maxSize) throws DataFormatException {
+        inflater.setInput(input);
+
+        while (!inflater.finished()) {
+            decompressed.ensureWritable(CHUNK);
+            int index = decompressed.writerIndex();
+            // Use all the space a presized buffer has left rather than a chunk at a time
+            int written = inflater.inflate(decompressed.internalNioBuffer(index, decompressed.writableBytes()));
+            if (written < 1) {
+                // Input has been used up
+                break;
+            }
+            decompressed.writerIndex(index + written);
+            if (maxSize > 0 && decompressed.writerIndex() >= maxSize) {
+                throw new DataFormatException("Inflated data exceeds maximum size");
+            }
+        }
+    }
+
+    @Override
+    public void deflate(ByteBuf uncompressed, ByteBuf compressed, int level, boolean raw) throws DataFormatException {
+        ByteBuf destination = null;
+        ByteBuf source = null;
+        try {
+            if (!uncompressed.isDirect() || uncompressed.nioBufferCount() != 1) {
+                // Source is not a single direct buffer. Work on a temporary direct buffer and then write the contents out.
+                source = ByteBufAllocator.DEFAULT.ioBuffer();
+                source.writeBytes(uncompressed);
+            } else {
+                source = uncompressed;
+            }
+
+            if (!compressed.isDirect()) {
+                // Destination is not a direct buffer. Work on a temporary direct buffer and then write the contents out.
+                destination = ByteBufAllocator.DEFAULT.ioBuffer();
+            } else {
+                destination = compressed;
+            }
+
+            Deflater deflater = (raw ? this.rawDeflaterLocal : this.deflaterLocal).get();
+            deflater.reset();
+            deflater.setLevel(level);
+            deflater.setInput(source.internalNioBuffer(source.readerIndex(), source.readableBytes()));
+
+            while (!deflater.finished()) {
+                int index = destination.writerIndex();
+                destination.ensureWritable(CHUNK);
+                int written = deflater.deflate(destination.internalNioBuffer(index, CHUNK));
+                destination.writerIndex(index + written);
+            }
+
+            if (destination != compressed) {
+                compressed.writeBytes(destination);
+            }
+        } finally {
+            if (source != null && source != uncompressed) {
+                source.release();
+            }
+            if (destination != null && destination != compressed) {
+                destination.release();
+            }
+        }
+    }
+}
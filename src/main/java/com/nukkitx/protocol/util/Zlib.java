@@ -1,115 +1,93 @@
 package com.nukkitx.protocol.util;
 
-import com.nukkitx.natives.util.Natives;
-import com.nukkitx.natives.zlib.Deflater;
-import com.nukkitx.natives.zlib.Inflater;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.ByteBufAllocator;
 
+import java.util.zip.Adler32;
 import java.util.zip.DataFormatException;
 
+import static com.nukkitx.network.util.Preconditions.checkNotNull;
+
 public class Zlib {
     public static final Zlib DEFAULT = new Zlib(false);
     public static final Zlib RAW = new Zlib(true);
 
-    private static final int CHUNK = 8192;
+    // Largest block deflate can store uncompressed
+    private static final int MAX_STORED_BLOCK = 0xffff;
+    // Header zlib writes for level 0: deflate with a 32K window and the lowest level flag
+    private static final int STORED_HEADER = 0x7801;
+
+    private static volatile ZlibBackend backend = NativeZlibBackend.INSTANCE;
 
-    private final ThreadLocal<Inflater> inflaterLocal;
-    private final ThreadLocal<Deflater> deflaterLocal;
+    private final boolean raw;
 
     private Zlib(boolean raw) {
-        // Required for Android API versions prior to 26.
-        this.inflaterLocal = new ThreadLocal<Inflater>() {
-            @Override
-            public Inflater initialValue() {
-                return Natives.ZLIB.get().create(raw);
-            }
-        };
-        this.deflaterLocal = new ThreadLocal<Deflater>(){
-            @Override
-            protected Deflater initialValue() {
-                return Natives.ZLIB.get().create(7, raw);
-            }
-        };
+        this.raw = raw;
     }
 
-    public void inflate(ByteBuf compressed, ByteBuf decompressed, int maxSize) throws DataFormatException {
-        ByteBuf source = null;
-        try {
-            if (!compressed.isDirect()) {
-                // We don't have a direct buffer. Create one.
-                ByteBuf temporary = ByteBufAllocator.DEFAULT.ioBuffer();
-                temporary.writeBytes(compressed);
-                source = temporary;
-            } else {
-                source = compressed;
-            }
+    /**
+     * @return backend wrappers are inflated and deflated with
+     */
+    public static ZlibBackend getBackend() {
+        return backend;
+    }
 
-            Inflater inflater = inflaterLocal.get();
-            inflater.reset();
-            inflater.setInput(source.internalNioBuffer(source.readerIndex(), source.readableBytes()));
-            inflater.finished();
+    /**
+     * @param backend backend to inflate and deflate with from now on
+     * @see ZlibBenchmark#selectFastest(java.util.List)
+     */
+    public static void setBackend(ZlibBackend backend) {
+        checkNotNull(backend, "backend");
+        Zlib.backend = backend;
+    }
 
-            while (!inflater.finished()) {
-                decompressed.ensureWritable(CHUNK);
-                int index = decompressed.writerIndex();
-                int written = inflater.inflate(decompressed.internalNioBuffer(index, CHUNK));
-                if (written < 1) {
-                    break;
-                }
-                decompressed.writerIndex(index + written);
-                if (maxSize > 0 && decompressed.writerIndex() >= maxSize) {
-                    throw new DataFormatException("Inflated data exceeds maximum size");
-                }
-            }
-        } finally {
-            if (source != null && source != compressed) {
-                source.release();
-            }
-        }
+    /**
+     * Inflate a buffer.
+     *
+     * @param compressed   compressed data
+     * @param decompressed buffer to write the inflated data to
+     * @param maxSize      maximum inflated size or 0 for no limit
+     * @throws DataFormatException if the data is invalid or exceeds the maximum size
+     */
+    public void inflate(ByteBuf compressed, ByteBuf decompressed, int maxSize) throws DataFormatException {
+        backend.inflate(compressed, decompressed, maxSize, this.raw);
     }
 
     public void deflate(ByteBuf uncompressed, ByteBuf compressed, int level) throws DataFormatException {
-        ByteBuf destination = null;
-        ByteBuf source = null;
-        try {
-            if (!uncompressed.isDirect()) {
-                // Source is not a direct buffer. Work on a temporary direct buffer and then write the contents out.
-                source = ByteBufAllocator.DEFAULT.ioBuffer();
-                source.writeBytes(uncompressed);
-            } else {
-                source = uncompressed;
-            }
-
-            if (!compressed.isDirect()) {
-                // Destination is not a direct buffer. Work on a temporary direct buffer and then write the contents out.
-                destination = ByteBufAllocator.DEFAULT.ioBuffer();
-            } else {
-                destination = compressed;
-            }
+        if (level == 0) {
+            this.store(uncompressed, compressed);
+        } else {
+            backend.deflate(uncompressed, compressed, level, this.raw);
+        }
+    }
 
-            Deflater deflater = deflaterLocal.get();
-            deflater.reset();
-            deflater.setLevel(level);
-            deflater.setInput(source.internalNioBuffer(source.readerIndex(), source.readableBytes()));
+    /**
+     * Write the data as stored blocks, which is all level 0 does. Done here as it is only a copy, which is cheaper than
+     * handing the data to any of the backends.
+     */
+    private void store(ByteBuf uncompressed, ByteBuf compressed) {
+        int index = uncompressed.readerIndex();
+        int remaining = uncompressed.readableBytes();
+        int blocks = Math.max(1, (remaining + MAX_STORED_BLOCK - 1) / MAX_STORED_BLOCK);
+        compressed.ensureWritable(remaining + blocks * 5 + (this.raw ? 0 : 6));
 
-            while (!deflater.finished()) {
-                int index = destination.writerIndex();
-                destination.ensureWritable(CHUNK);
-                int written = deflater.deflate(destination.internalNioBuffer(index, CHUNK));
-                destination.writerIndex(index + written);
-            }
+        if (!this.raw) {
+            compressed.writeShort(STORED_HEADER);
+        }
+        do {
+            int length = Math.min(MAX_STORED_BLOCK, remaining);
+            remaining -= length;
+            // BFINAL on the last block, BTYPE 00 for stored
+            compressed.writeByte(remaining == 0 ? 1 : 0);
+            compressed.writeShortLE(length);
+            compressed.writeShortLE(~length);
+            compressed.writeBytes(uncompressed, index, length);
+            index += length;
+        } while (remaining > 0);
 
-            if (destination != compressed) {
-                compressed.writeBytes(destination);
-            }
-        } finally {
-            if (source != null && source != uncompressed) {
-                source.release();
-            }
-            if (destination != null && destination != compressed) {
-                destination.release();
-            }
+        if (!this.raw) {
+            Adler32 adler32 = new Adler32();
+            adler32.update(uncompressed.nioBuffer(uncompressed.readerIndex(), uncompressed.readableBytes()));
+            compressed.writeInt((int) adler32.getValue());
         }
     }
-}
\ No newline at end of file
+}
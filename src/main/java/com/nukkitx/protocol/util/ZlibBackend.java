@@ -0,0 +1,38 @@
+package com.nukkitx.protocol.util;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.zip.DataFormatException;
+
+/**
+ * Implementation of zlib and raw deflate used by {@link Zlib}. Every backend has to read what any other backend writes,
+ * as the other end of a connection may use anything to inflate wrappers.
+ *
+ * @see Zlib#setBackend(ZlibBackend)
+ * @see ZlibBenchmark
+ */
+public interface ZlibBackend {
+
+    /**
+     * @return name the backend is reported as
+     */
+    String getName();
+
+    /**
+     * @param compressed   compressed data
+     * @param decompressed buffer to write the inflated data to
+     * @param maxSize      maximum inflated size or 0 for no limit
+     * @param raw          true for raw deflate, false for zlib
+     * @throws DataFormatException if the data is invalid or exceeds the maximum size
+     */
+    void inflate(ByteBuf compressed, ByteBuf decompressed, int maxSize, boolean raw) throws DataFormatException;
+
+    /**
+     * @param uncompressed data to compress
+     * @param compressed   buffer to write the compressed data to
+     * @param level        compression level between -1 and 9
+     * @param raw          true for raw deflate, false for zlib
+     * @throws DataFormatException if the data cannot be compressed
+     */
+    void deflate(ByteBuf uncompressed, ByteBuf compressed, int level, boolean raw) throws DataFormatException;
+}
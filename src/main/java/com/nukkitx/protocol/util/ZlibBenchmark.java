@@ -0,0 +1,199 @@
+package com.nukkitx.protocol.util;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.util.internal.logging.InternalLogger;
+import io.netty.util.internal.logging.InternalLoggerFactory;
+import lombok.experimental.UtilityClass;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+
+import static com.nukkitx.network.util.Preconditions.checkArgument;
+
+/**
+ * Picks the fastest {@link ZlibBackend} on this machine by compressing and inflating a small corpus resembling what
+ * is sent in wrappers: a batch of movement, a chunk and crafting data. Backends which cannot be loaded or do not read
+ * and write the same data as {@link JdkZlibBackend} are left out.
+ */
+@UtilityClass
+public class ZlibBenchmark {
+    private static final InternalLogger log = InternalLoggerFactory.getInstance(ZlibBenchmark.class);
+
+    // Levels of interactive and bulk wrappers picked by the adaptive compression policy
+    private static final int[] LEVELS = {1, 7};
+    private static final int WARMUP_ROUNDS = 10;
+    private static final int ROUNDS = 20;
+
+    /**
+     * @return the fastest of the native and java.util.zip backends
+     */
+    public static ZlibBackend selectFastest() {
+        return selectFastest(Arrays.asList(NativeZlibBackend.INSTANCE, JdkZlibBackend.INSTANCE));
+    }
+
+    /**
+     * @param candidates backends to choose from
+     * @return the fastest compatible backend, or {@link JdkZlibBackend} if none of them is compatible
+     */
+    public static ZlibBackend selectFastest(List<ZlibBackend> candidates) {
+        checkArgument(!candidates.isEmpty(), "No backends to choose from");
+
+        List<ByteBuf> corpus = createCorpus();
+        try {
+            ZlibBackend fastest = null;
+            long fastestNanos = Long.MAX_VALUE;
+            for (ZlibBackend candidate : candidates) {
+                long nanos;
+                try {
+                    if (!isCompatible(candidate, corpus)) {
+                        log.warn("Zlib backend {} does not produce the same data as java.util.zip, skipping it",
+                                candidate.getName());
+                        continue;
+                    }
+                    run(candidate, corpus, WARMUP_ROUNDS);
+                    nanos = run(candidate, corpus, ROUNDS);
+                } catch (Exception | LinkageError e) {
+                    log.warn("Zlib backend {} is not available: {}", candidate.getName(), e.toString());
+                    continue;
+                }
+                log.debug("Zlib backend {} took {}us per round", candidate.getName(),
+                        TimeUnit.NANOSECONDS.toMicros(nanos / ROUNDS));
+                if (nanos < fastestNanos) {
+                    fastest = candidate;
+                    fastestNanos = nanos;
+                }
+            }
+
+            if (fastest == null) {
+                log.warn("None of the zlib backends are usable, using java.util.zip");
+                return JdkZlibBackend.INSTANCE;
+            }
+            long bytes = 0;
+            for (ByteBuf payload : corpus) {
+                bytes += payload.readableBytes();
+            }
+            // Each level deflates and inflates the corpus once
+            double throughput = bytes * LEVELS.length * 2 * ROUNDS / (fastestNanos / 1e9) / (1024 * 1024);
+            log.info("Using {} zlib backend ({} MB/s)", fastest.getName(), String.format("%.1f", throughput));
+            return fastest;
+        } finally {
+            for (ByteBuf payload : corpus) {
+                payload.release();
+            }
+        }
+    }
+
+    /**
+     * Both directions are checked: the backend has to read data deflated by java.util.zip and java.util.zip has to
+     * read data deflated by the backend.
+     */
+    private static boolean isCompatible(ZlibBackend backend, List<ByteBuf> corpus) throws DataFormatException {
+        for (ByteBuf payload : corpus) {
+            for (int level : LEVELS) {
+                if (!roundTrips(backend, JdkZlibBackend.INSTANCE, payload, level)
+                        || !roundTrips(JdkZlibBackend.INSTANCE, backend, payload, level)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean roundTrips(ZlibBackend deflater, ZlibBackend inflater, ByteBuf payload, int level)
+            throws DataFormatException {
+        ByteBuf compressed = ByteBufAllocator.DEFAULT.ioBuffer();
+        ByteBuf decompressed = ByteBufAllocator.DEFAULT.ioBuffer(payload.readableBytes());
+        try {
+            deflater.deflate(payload, compressed, level, false);
+            inflater.inflate(compressed, decompressed, 0, false);
+            return ByteBufUtil.equals(payload, decompressed);
+        } finally {
+            compressed.release();
+            decompressed.release();
+        }
+    }
+
+    /**
+     * @return time taken
+     */
+    private static long run(ZlibBackend backend, List<ByteBuf> corpus, int rounds) throws DataFormatException {
+        ByteBuf compressed = ByteBufAllocator.DEFAULT.ioBuffer();
+        ByteBuf decompressed = ByteBufAllocator.DEFAULT.ioBuffer();
+        try {
+            long start = System.nanoTime();
+            for (int round = 0; round < rounds; round++) {
+                for (ByteBuf payload : corpus) {
+                    for (int level : LEVELS) {
+                        compressed.clear();
+                        decompressed.clear();
+                        backend.deflate(payload, compressed, level, false);
+                        backend.inflate(compressed, decompressed, 0, false);
+                    }
+                }
+            }
+            return System.nanoTime() - start;
+        } finally {
+            compressed.release();
+            decompressed.release();
+        }
+    }
+
+    private static List<ByteBuf> createCorpus() {
+        // Fixed seed so every run measures the same data
+        Random random = new Random(0x5eed);
+        List<ByteBuf> corpus = new ArrayList<>(3);
+
+        // Movement: small packets of mostly random floats
+        ByteBuf movement = ByteBufAllocator.DEFAULT.ioBuffer();
+        for (int i = 0; i < 16; i++) {
+            movement.writeByte(42);
+            movement.writeByte(0x13);
+            movement.writeLongLE(random.nextInt(64));
+            for (int j = 0; j < 6; j++) {
+                movement.writeFloatLE(random.nextFloat() * 256);
+            }
+            movement.writeZero(8);
+        }
+        corpus.add(movement);
+
+        // Chunk: runs of a few block states with some noise and mostly empty light data
+        ByteBuf chunk = ByteBufAllocator.DEFAULT.ioBuffer();
+        for (int subChunk = 0; subChunk < 8; subChunk++) {
+            int block = 0;
+            for (int i = 0; i < 4096; i++) {
+                if (random.nextInt(16) == 0) {
+                    block = random.nextInt(12);
+                }
+                chunk.writeByte(block);
+            }
+            for (int i = 0; i < 2048; i++) {
+                chunk.writeByte(random.nextInt(32) == 0 ? random.nextInt(256) : 0xff);
+            }
+        }
+        corpus.add(chunk);
+
+        // Crafting data: namespaced identifiers and small numbers
+        ByteBuf craftingData = ByteBufAllocator.DEFAULT.ioBuffer();
+        String[] items = {"planks", "stick", "cobblestone", "iron_ingot", "gold_ingot", "redstone", "diamond",
+                "oak_log", "string", "leather", "wool", "glass", "sand", "coal", "emerald", "quartz"};
+        for (int recipe = 0; recipe < 600; recipe++) {
+            craftingData.writeIntLE(recipe);
+            for (int ingredient = 0; ingredient < 4; ingredient++) {
+                byte[] name = ("minecraft:" + items[random.nextInt(items.length)]).getBytes(StandardCharsets.UTF_8);
+                craftingData.writeByte(name.length);
+                craftingData.writeBytes(name);
+                craftingData.writeShortLE(random.nextInt(4));
+                craftingData.writeByte(1 + random.nextInt(8));
+            }
+        }
+        corpus.add(craftingData);
+        return corpus;
+    }
+}
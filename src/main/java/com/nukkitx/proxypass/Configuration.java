@@ -1,6 +1,9 @@
 package com.nukkitx.proxypass;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.nukkitx.protocol.bedrock.OverflowPolicy;
+import com.nukkitx.proxypass.network.bedrock.util.CipherType;
+import com.nukkitx.proxypass.network.bedrock.util.CompressionBackendType;
 import com.nukkitx.proxypass.network.bedrock.util.LogTo;
 import lombok.Getter;
 import lombok.ToString;
@@ -14,6 +17,8 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 @Getter
@@ -22,13 +27,69 @@ public class Configuration {
 
     private Address proxy;
     private Address destination;
+    @JsonProperty("shadow-destinations")
+    private List<Address> shadowDestinations = Collections.emptyList();
 
     @JsonProperty("packet-testing")
     private boolean packetTesting = false;
+    @JsonProperty("packet-testing-threads")
+    private int packetTestingThreads = 1;
+    @JsonProperty("packet-testing-queue-size")
+    private int packetTestingQueueSize = 1024;
+    @JsonProperty("packet-testing-sample-rate")
+    private double packetTestingSampleRate = 1.0;
+    @JsonProperty("packet-testing-sample-rates")
+    private Map<String, Double> packetTestingSampleRates = Collections.emptyMap();
+    @JsonProperty("packet-testing-dump-limit")
+    private int packetTestingDumpLimit = 10;
+    @JsonProperty("packet-testing-report-interval")
+    private int packetTestingReportInterval = 300;
+    @JsonProperty("raw-forwarding")
+    private boolean rawForwarding = false;
+    @JsonProperty("flush-window")
+    private int flushWindow = 2;
+    @JsonProperty("flush-threshold")
+    private int flushThreshold = 16384;
+    @JsonProperty("max-batch-size")
+    private int maxBatchSize = 65536;
+    @JsonProperty("max-compressed-batch-size")
+    private int maxCompressedBatchSize = 8192;
+    @JsonProperty("bulk-share")
+    private double bulkShare = 0.5;
+    @JsonProperty("outbound-queue-low-watermark")
+    private int outboundQueueLowWatermark = 1024;
+    @JsonProperty("outbound-queue-high-watermark")
+    private int outboundQueueHighWatermark = 4096;
+    @JsonProperty("outbound-queue-policy")
+    private OverflowPolicy outboundQueuePolicy = OverflowPolicy.DISCONNECT;
+    @JsonProperty("outbound-queue-policies")
+    private Map<String, OverflowPolicy> outboundQueuePolicies = Collections.emptyMap();
+    @JsonProperty("compression-backend")
+    private CompressionBackendType compressionBackend = CompressionBackendType.AUTO;
+    @JsonProperty("compression-level")
+    private int compressionLevel = -1;
+    @JsonProperty("compression-cpu-limit")
+    private double compressionCpuLimit = 0.5;
+    @JsonProperty("compression-bandwidth-limit")
+    private long compressionBandwidthLimit = 0;
+    @JsonProperty("payload-cache-size")
+    private long payloadCacheSize = 32 * 1024 * 1024;
+    @JsonProperty("payload-cache-min-size")
+    private int payloadCacheMinSize = 16384;
+    @JsonProperty("compression-threads")
+    private int compressionThreads = 2;
+    @JsonProperty("async-compression-threshold")
+    private int asyncCompressionThreshold = 65536;
+    @JsonProperty("cipher")
+    private CipherType cipher = CipherType.AUTO;
+    @JsonProperty("verify-checksums")
+    private boolean verifyingChecksums = true;
     @JsonProperty("log-packets")
     private boolean loggingPackets = false;
     @JsonProperty("max-clients")
     private int maxClients = 0;
+    @JsonProperty("client-pool-size")
+    private int clientPoolSize = 1;
     @JsonProperty("log-to")
     private LogTo logTo = LogTo.FILE;
 
@@ -57,7 +118,7 @@ public class Configuration {
         private String host;
         private int port;
 
-        InetSocketAddress getAddress() {
+        public InetSocketAddress getAddress() {
             return new InetSocketAddress(host, port);
         }
     }
@@ -10,12 +10,32 @@ import com.nukkitx.nbt.NBTInputStream;
 import com.nukkitx.nbt.NBTOutputStream;
 import com.nukkitx.nbt.NbtMap;
 import com.nukkitx.nbt.NbtUtils;
+import com.nukkitx.network.util.EventLoops;
 import com.nukkitx.protocol.bedrock.BedrockClient;
+import com.nukkitx.protocol.bedrock.BedrockPacket;
 import com.nukkitx.protocol.bedrock.BedrockPacketCodec;
+import com.nukkitx.protocol.bedrock.BedrockPacketDefinition;
 import com.nukkitx.protocol.bedrock.BedrockServer;
+import com.nukkitx.protocol.bedrock.BedrockSession;
+import com.nukkitx.protocol.bedrock.OverflowPolicy;
+import com.nukkitx.protocol.bedrock.util.CipherProvider;
+import com.nukkitx.protocol.bedrock.util.EncryptionUtils;
 import com.nukkitx.protocol.bedrock.v113.Bedrock_v113;
+import com.nukkitx.protocol.bedrock.wrapper.AdaptiveCompressionPolicy;
+import com.nukkitx.protocol.bedrock.wrapper.CompressedPayloadCache;
+import com.nukkitx.protocol.util.JdkZlibBackend;
+import com.nukkitx.protocol.util.NativeZlibBackend;
+import com.nukkitx.protocol.util.Zlib;
+import com.nukkitx.protocol.util.ZlibBenchmark;
 import com.nukkitx.proxypass.network.ProxyBedrockEventHandler;
+import com.nukkitx.proxypass.network.bedrock.client.ClientPool;
+import com.nukkitx.proxypass.network.bedrock.session.PipelineInitializer;
+import com.nukkitx.proxypass.network.bedrock.testing.PacketTester;
+import com.nukkitx.proxypass.network.bedrock.util.CipherType;
+import com.nukkitx.proxypass.network.bedrock.util.CompressionBackendType;
+import io.netty.channel.EventLoop;
 import io.netty.util.ResourceLeakDetector;
+import io.netty.util.concurrent.DefaultThreadFactory;
 import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.extern.log4j.Log4j2;
@@ -27,8 +47,12 @@ import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 @Log4j2
@@ -62,9 +86,25 @@ public class ProxyPass {
     private int maxClients = 0;
     @Getter(AccessLevel.NONE)
     private final Set<Class<?>> ignoredPackets = Collections.newSetFromMap(new IdentityHashMap<>());
+    @Getter(AccessLevel.NONE)
+    private final BitSet ignoredPacketIds = new BitSet();
     private InetSocketAddress targetAddress;
     private InetSocketAddress proxyAddress;
     private Configuration configuration;
+    private PacketTester packetTester;
+    @Getter(AccessLevel.NONE)
+    private CipherProvider cipherProvider;
+    @Getter(AccessLevel.NONE)
+    private AdaptiveCompressionPolicy compressionPolicy;
+    @Getter(AccessLevel.NONE)
+    private CompressedPayloadCache payloadCache;
+    @Getter(AccessLevel.NONE)
+    private ExecutorService compressionExecutor;
+    @Getter(AccessLevel.NONE)
+    private final Map<Class<? extends BedrockPacket>, OverflowPolicy> overflowPolicies = new HashMap<>();
+    @Getter(AccessLevel.NONE)
+    private ClientPool clientPool;
+    private final List<PipelineInitializer> pipelineInitializers = new CopyOnWriteArrayList<>();
     private Path baseDir;
     private Path sessionsDir;
     private Path dataDir;
@@ -95,17 +135,77 @@ public class ProxyPass {
         configuration.getIgnoredPackets().forEach(s -> {
             try {
                 ignoredPackets.add(Class.forName("com.nukkitx.protocol.bedrock.packet." + s));
+                Integer packetId = getPacketId(s);
+                if (packetId != null) {
+                    ignoredPacketIds.set(packetId);
+                }
             } catch (ClassNotFoundException e) {
                 log.warn("No packet with name {}", s);
             }
         });
 
+        if (configuration.isPacketTesting()) {
+            packetTester = new PacketTester(CODEC, configuration.getPacketTestingThreads(),
+                    configuration.getPacketTestingQueueSize(), configuration.getPacketTestingSampleRate(),
+                    configuration.getPacketTestingDumpLimit(), configuration.getPacketTestingReportInterval());
+            configuration.getPacketTestingSampleRates().forEach((name, sampleRate) -> {
+                Integer packetId = getPacketId(name);
+                if (packetId != null) {
+                    packetTester.setSampleRate(packetId, sampleRate);
+                } else {
+                    log.warn("No packet with name {}", name);
+                }
+            });
+        }
+
+        cipherProvider = EncryptionUtils.getDefaultCipherProvider();
+        if (configuration.getCipher() == CipherType.JCE) {
+            cipherProvider = EncryptionUtils.JCE_CIPHER_PROVIDER;
+        } else if (configuration.getCipher() == CipherType.NATIVE && EncryptionUtils.getNativeCipherProvider() == null) {
+            log.warn("Native AES is not available on this platform, falling back to JCE");
+        }
+        log.info("Using {} encryption", cipherProvider == EncryptionUtils.JCE_CIPHER_PROVIDER ? "JCE" : "native");
+
+        if (configuration.getCompressionBackend() == CompressionBackendType.AUTO) {
+            Zlib.setBackend(ZlibBenchmark.selectFastest());
+        } else {
+            Zlib.setBackend(configuration.getCompressionBackend() == CompressionBackendType.JDK ?
+                    JdkZlibBackend.INSTANCE : NativeZlibBackend.INSTANCE);
+            log.info("Using {} zlib backend", Zlib.getBackend().getName());
+        }
+
+        if (configuration.getCompressionLevel() < 0) {
+            compressionPolicy = new AdaptiveCompressionPolicy(256, 1, 7, configuration.getCompressionCpuLimit(),
+                    configuration.getCompressionBandwidthLimit());
+        }
+
+        if (configuration.getPayloadCacheSize() > 0) {
+            payloadCache = new CompressedPayloadCache(configuration.getPayloadCacheSize(),
+                    configuration.getPayloadCacheMinSize());
+        }
+
+        if (configuration.getCompressionThreads() > 0) {
+            compressionExecutor = Executors.newFixedThreadPool(configuration.getCompressionThreads(),
+                    new DefaultThreadFactory("Compression", true));
+        }
+
+        configuration.getOutboundQueuePolicies().forEach((name, policy) -> {
+            Class<? extends BedrockPacket> packetClass = getPacketClass(name);
+            if (packetClass != null) {
+                overflowPolicies.put(packetClass, policy);
+            } else {
+                log.warn("No packet with name {}", name);
+            }
+        });
+
         baseDir = Paths.get(".").toAbsolutePath();
         sessionsDir = baseDir.resolve("sessions");
         dataDir = baseDir.resolve("data");
         Files.createDirectories(sessionsDir);
         Files.createDirectories(dataDir);
 
+        clientPool = new ClientPool(configuration.getClientPoolSize(), EventLoops.commonGroup());
+
         log.info("Loading server...");
         this.bedrockServer = new BedrockServer(this.proxyAddress);
         this.bedrockServer.setHandler(new ProxyBedrockEventHandler(this));
@@ -115,12 +215,85 @@ public class ProxyPass {
         loop();
     }
 
-    public BedrockClient newClient() {
-        InetSocketAddress bindAddress = new InetSocketAddress("0.0.0.0", ThreadLocalRandom.current().nextInt(20000, 60000));
-        BedrockClient client = new BedrockClient(bindAddress);
-        this.clients.add(client);
-        client.bind().join();
-        return client;
+    private static Integer getPacketId(String name) {
+        Class<? extends BedrockPacket> packetClass = getPacketClass(name);
+        if (packetClass != null) {
+            BedrockPacketDefinition<?> definition = CODEC.getPacketDefinition(packetClass);
+            if (definition != null) {
+                return definition.getId();
+            }
+        }
+        return null;
+    }
+
+    private static Class<? extends BedrockPacket> getPacketClass(String name) {
+        try {
+            Class<?> packetClass = Class.forName("com.nukkitx.protocol.bedrock.packet." + name);
+            if (BedrockPacket.class.isAssignableFrom(packetClass)) {
+                return packetClass.asSubclass(BedrockPacket.class);
+            }
+        } catch (ClassNotFoundException e) {
+            // Not a packet
+        }
+        return null;
+    }
+
+    /**
+     * Apply the outbound settings from the configuration to a session.
+     *
+     * @param session upstream or downstream session of a player
+     */
+    public void configureSession(BedrockSession session) {
+        session.setFlushWindow(configuration.getFlushWindow(), TimeUnit.MILLISECONDS);
+        session.setFlushThreshold(configuration.getFlushThreshold());
+        session.setBatchSizes(configuration.getMaxBatchSize(), configuration.getMaxCompressedBatchSize());
+        session.setBulkShare(configuration.getBulkShare());
+        session.setQueueWatermarks(configuration.getOutboundQueueLowWatermark(),
+                configuration.getOutboundQueueHighWatermark());
+        session.setDefaultOverflowPolicy(configuration.getOutboundQueuePolicy());
+        overflowPolicies.forEach(session::setOverflowPolicy);
+        session.setChecksumVerification(configuration.isVerifyingChecksums());
+        session.setCipherProvider(cipherProvider);
+        if (compressionPolicy != null) {
+            session.setCompressionPolicy(compressionPolicy);
+        } else {
+            session.setCompressionLevel(configuration.getCompressionLevel());
+        }
+        session.setPayloadCache(payloadCache);
+        session.setCompressionExecutor(compressionExecutor, configuration.getAsyncCompressionThreshold());
+    }
+
+    /**
+     * Take a bound downstream client.
+     *
+     * @param eventLoop event loop the client should run on, usually the one of the upstream session it is for
+     * @return future completed with the client
+     */
+    public CompletableFuture<BedrockClient> newClient(EventLoop eventLoop) {
+        return this.clientPool.take(eventLoop).thenApply(client -> {
+            this.clients.add(client);
+            return client;
+        });
+    }
+
+    /**
+     * Take a bound client for a shadow server, which runs on another event loop than the player so mirroring does not
+     * hold up the primary connection.
+     *
+     * @param eventLoop event loop of the upstream session the client is for
+     * @return future completed with the client
+     */
+    public CompletableFuture<BedrockClient> newShadowClient(EventLoop eventLoop) {
+        return this.clientPool.takeOther(eventLoop).thenApply(client -> {
+            this.clients.add(client);
+            return client;
+        });
+    }
+
+    public void closeClient(BedrockClient client) {
+        if (this.clients.remove(client)) {
+            this.clientPool.release(client);
+        }
     }
 
     private void loop() {
@@ -137,7 +310,21 @@ public class ProxyPass {
 
         // Shutdown
         this.clients.forEach(BedrockClient::close);
+        this.clientPool.close();
         this.bedrockServer.close();
+        if (this.packetTester != null) {
+            this.packetTester.shutdown();
+        }
+        if (this.compressionExecutor != null) {
+            this.compressionExecutor.shutdown();
+        }
+        if (this.compressionPolicy != null) {
+            log.info("Compression: {}", this.compressionPolicy);
+        }
+        if (this.payloadCache != null) {
+            log.info("Payload cache: {}", this.payloadCache);
+            this.payloadCache.clear();
+        }
     }
 
     public void shutdown() {
@@ -205,9 +392,17 @@ public class ProxyPass {
         }
     }
 
+    public void addPipelineInitializer(PipelineInitializer initializer) {
+        this.pipelineInitializers.add(Objects.requireNonNull(initializer, "initializer"));
+    }
+
     public boolean isIgnoredPacket(Class<?> clazz) {
         return this.ignoredPackets.contains(clazz);
     }
+
+    public boolean isIgnoredPacket(int packetId) {
+        return this.ignoredPacketIds.get(packetId);
+    }
     
     public boolean isFull() {
         return maxClients > 0 && this.clients.size() >= maxClients;
@@ -0,0 +1,82 @@
+package com.nukkitx.proxypass.benchmark;
+
+import com.nukkitx.protocol.bedrock.util.CipherProvider;
+import com.nukkitx.protocol.bedrock.util.EncryptionUtils;
+import com.nukkitx.protocol.bedrock.util.SessionCipher;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the throughput of the JCE and native AES-CFB8 ciphers on payloads of typical wrapper sizes.
+ * <p>
+ * Run with {@code java -cp ProxyPass.jar com.nukkitx.proxypass.benchmark.CipherBenchmark [seconds]}.
+ */
+public class CipherBenchmark {
+    private static final int[] PAYLOAD_SIZES = {64, 512, 4096, 65536};
+
+    public static void main(String[] args) throws GeneralSecurityException {
+        long duration = TimeUnit.SECONDS.toNanos(args.length > 0 ? Integer.parseInt(args[0]) : 2);
+
+        byte[] keyBytes = new byte[32];
+        ThreadLocalRandom.current().nextBytes(keyBytes);
+        SecretKey key = new SecretKeySpec(keyBytes, "AES");
+
+        CipherProvider nativeProvider = EncryptionUtils.getNativeCipherProvider();
+        if (nativeProvider == null) {
+            System.out.println("Native AES is not available on this platform");
+        }
+
+        System.out.printf("%-8s %10s %12s%n", "cipher", "payload", "MB/s");
+        for (int size : PAYLOAD_SIZES) {
+            print("jce", size, run(EncryptionUtils.JCE_CIPHER_PROVIDER, key, size, duration));
+            if (nativeProvider != null) {
+                print("native", size, run(nativeProvider, key, size, duration));
+            }
+        }
+    }
+
+    private static double run(CipherProvider provider, SecretKey key, int size, long duration)
+            throws GeneralSecurityException {
+        SessionCipher cipher = provider.create(false, true, key);
+        try {
+            ByteBuffer input = ByteBuffer.allocateDirect(size);
+            ByteBuffer output = ByteBuffer.allocateDirect(size);
+            byte[] payload = new byte[size];
+            ThreadLocalRandom.current().nextBytes(payload);
+            input.put(payload);
+
+            // Warm up
+            cipher(cipher, input, output, duration / 4);
+            long start = System.nanoTime();
+            long bytes = cipher(cipher, input, output, duration);
+            long elapsed = System.nanoTime() - start;
+            return bytes / (elapsed / 1_000_000_000.0) / (1024 * 1024);
+        } finally {
+            cipher.free();
+        }
+    }
+
+    private static long cipher(SessionCipher cipher, ByteBuffer input, ByteBuffer output, long duration)
+            throws GeneralSecurityException {
+        long bytes = 0;
+        long end = System.nanoTime() + duration;
+        while (System.nanoTime() < end) {
+            for (int i = 0; i < 64; i++) {
+                input.clear();
+                output.clear();
+                cipher.cipher(input, output);
+                bytes += input.capacity();
+            }
+        }
+        return bytes;
+    }
+
+    private static void print(String name, int size, double throughput) {
+        System.out.printf("%-8s %10d %12.1f%n", name, size, throughput);
+    }
+}
@@ -0,0 +1,197 @@
+package com.nukkitx.proxypass.network.bedrock.client;
+
+import com.nukkitx.protocol.bedrock.BedrockClient;
+import com.nukkitx.protocol.bedrock.BedrockTicker;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.EventExecutor;
+import lombok.extern.log4j.Log4j2;
+
+import java.net.InetSocketAddress;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of downstream clients which have already been bound, so connecting a player does not have to wait for a socket
+ * to be bound. The pool is refilled in the background whenever a client is taken.
+ * <p>
+ * Clients are kept per event loop so a downstream connection can run on the same event loop as the upstream session
+ * it belongs to. Every client is ticked by one shared timer rather than scheduling its own.
+ * <p>
+ * Local ports are allocated from a fixed range and tracked so two clients are never bound to the same port.
+ */
+@Log4j2
+public class ClientPool {
+    private static final int MIN_PORT = 20000;
+    private static final int MAX_PORT = 60000;
+    private static final int BIND_ATTEMPTS = 10;
+
+    private final int size;
+    private final EventLoopGroup eventLoopGroup;
+    private final int eventLoopCount;
+    private final BedrockTicker ticker;
+    private final Map<EventLoop, LoopPool> pools = new ConcurrentHashMap<>();
+    private final BitSet usedPorts = new BitSet(MAX_PORT - MIN_PORT);
+    private int nextPort = 0;
+    private volatile boolean closed = false;
+
+    /**
+     * @param size           number of idle clients to keep bound per event loop
+     * @param eventLoopGroup group the clients run on
+     */
+    public ClientPool(int size, EventLoopGroup eventLoopGroup) {
+        this.size = size;
+        this.eventLoopGroup = eventLoopGroup;
+        this.ticker = new BedrockTicker(eventLoopGroup);
+        int eventLoopCount = 0;
+        for (EventExecutor executor : eventLoopGroup) {
+            if (executor instanceof EventLoop) {
+                this.fill(this.getPool((EventLoop) executor));
+                eventLoopCount++;
+            }
+        }
+        this.eventLoopCount = eventLoopCount;
+    }
+
+    /**
+     * Take a bound client from the pool.
+     *
+     * @param eventLoop event loop the client should run on
+     * @return future completed with a bound client. If the pool is empty a new client is bound first.
+     */
+    public CompletableFuture<BedrockClient> take(EventLoop eventLoop) {
+        LoopPool pool = this.getPool(eventLoop);
+        BedrockClient client = pool.idle.poll();
+        this.fill(pool);
+        if (client != null) {
+            return CompletableFuture.completedFuture(client);
+        }
+
+        CompletableFuture<BedrockClient> future = new CompletableFuture<>();
+        this.bind(eventLoop, BIND_ATTEMPTS, future);
+        return future;
+    }
+
+    public CompletableFuture<BedrockClient> take() {
+        return this.take(this.eventLoopGroup.next());
+    }
+
+    /**
+     * Take a bound client running on another event loop, so the work of the client does not hold up the sessions of
+     * the given one.
+     *
+     * @param eventLoop event loop the client should not run on
+     * @return future completed with a bound client, which only runs on the given event loop if the group has no other
+     */
+    public CompletableFuture<BedrockClient> takeOther(EventLoop eventLoop) {
+        EventLoop other = this.eventLoopGroup.next();
+        // The group hands out its event loops in turn, so any other one turns up within a round.
+        for (int i = 0; other == eventLoop && i < this.eventLoopCount; i++) {
+            other = this.eventLoopGroup.next();
+        }
+        return this.take(other);
+    }
+
+    /**
+     * Close a client which was taken from this pool and make its port available again.
+     *
+     * @param client client to close
+     */
+    public void release(BedrockClient client) {
+        client.close();
+        this.freePort(client.getBindAddress().getPort());
+    }
+
+    public void close() {
+        this.closed = true;
+        for (LoopPool pool : this.pools.values()) {
+            BedrockClient client;
+            while ((client = pool.idle.poll()) != null) {
+                this.release(client);
+            }
+        }
+        this.ticker.close();
+    }
+
+    private LoopPool getPool(EventLoop eventLoop) {
+        return this.pools.computeIfAbsent(eventLoop, LoopPool::new);
+    }
+
+    private void bind(EventLoop eventLoop, int attempts, CompletableFuture<BedrockClient> future) {
+        int port = this.allocatePort();
+        BedrockClient client = new BedrockClient(new InetSocketAddress("0.0.0.0", port), eventLoop, eventLoop,
+                this.ticker);
+        client.bind().whenComplete((ignored, throwable) -> {
+            if (throwable == null) {
+                future.complete(client);
+                return;
+            }
+            // Port is probably in use by another process. The next attempt will move on to the next port.
+            log.debug("Unable to bind client to port {}", port, throwable);
+            client.close();
+            this.freePort(port);
+            if (attempts > 1) {
+                this.bind(eventLoop, attempts - 1, future);
+            } else {
+                future.completeExceptionally(throwable);
+            }
+        });
+    }
+
+    private void fill(LoopPool pool) {
+        while (!this.closed && pool.idle.size() + pool.pending.get() < this.size) {
+            pool.pending.incrementAndGet();
+            CompletableFuture<BedrockClient> future = new CompletableFuture<>();
+            this.bind(pool.eventLoop, 1, future);
+            future.whenComplete((client, throwable) -> {
+                if (throwable == null) {
+                    if (this.closed) {
+                        this.release(client);
+                    } else {
+                        pool.idle.offer(client);
+                    }
+                }
+                pool.pending.decrementAndGet();
+                if (throwable == null) {
+                    this.fill(pool);
+                }
+            });
+        }
+    }
+
+    private synchronized int allocatePort() {
+        int range = MAX_PORT - MIN_PORT;
+        int index = this.usedPorts.nextClearBit(this.nextPort);
+        if (index >= range) {
+            index = this.usedPorts.nextClearBit(0);
+            if (index >= range) {
+                throw new IllegalStateException("No free ports left between " + MIN_PORT + " and " + MAX_PORT);
+            }
+        }
+        this.usedPorts.set(index);
+        // Keep moving forward so a port which just failed to bind is not tried again straight away.
+        this.nextPort = index + 1;
+        return MIN_PORT + index;
+    }
+
+    private synchronized void freePort(int port) {
+        if (port >= MIN_PORT && port < MAX_PORT) {
+            this.usedPorts.clear(port - MIN_PORT);
+        }
+    }
+
+    private static class LoopPool {
+        private final EventLoop eventLoop;
+        private final Queue<BedrockClient> idle = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pending = new AtomicInteger();
+
+        private LoopPool(EventLoop eventLoop) {
+            this.eventLoop = eventLoop;
+        }
+    }
+}
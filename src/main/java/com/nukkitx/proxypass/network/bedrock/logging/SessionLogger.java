@@ -7,6 +7,8 @@ import com.nimbusds.jose.shaded.json.JSONObject;
 import com.nukkitx.protocol.bedrock.BedrockPacket;
 import com.nukkitx.protocol.bedrock.BedrockSession;
 import com.nukkitx.proxypass.ProxyPass;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
 import lombok.extern.log4j.Log4j2;
 
 import javax.imageio.ImageIO;
@@ -22,6 +24,7 @@ import java.util.Deque;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
 
 
@@ -38,6 +41,8 @@ public class SessionLogger {
 
     private final Deque<String> logBuffer = new ArrayDeque<>();
 
+    private final AtomicInteger mismatchIndex = new AtomicInteger();
+
     public SessionLogger(ProxyPass proxy, Path sessionsDir, String displayName, long timestamp) {
         this.proxy = proxy;
         this.dataPath = sessionsDir.resolve(displayName + '-' + timestamp);
@@ -86,6 +91,27 @@ public class SessionLogger {
         }
     }
 
+    public int nextMismatchIndex() {
+        return mismatchIndex.incrementAndGet();
+    }
+
+    public void saveMismatch(String name, ByteBuf original, ByteBuf encoded) {
+        Path mismatchPath = dataPath.resolve("mismatches");
+        try {
+            Files.createDirectories(mismatchPath);
+            Files.write(mismatchPath.resolve(name + "-original.bin"), ByteBufUtil.getBytes(original),
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            Files.write(mismatchPath.resolve(name + "-encoded.bin"), ByteBufUtil.getBytes(encoded),
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException e) {
+            log.error("Unable to save packet mismatch", e);
+        }
+    }
+
+    public boolean isLogging() {
+        return proxy.getConfiguration().isLoggingPackets() || log.isTraceEnabled();
+    }
+
     public void logPacket(BedrockSession session, BedrockPacket packet, boolean upstream) {
         String logPrefix = getLogPrefix(upstream);
         if (!proxy.isIgnoredPacket(packet.getClass())) {
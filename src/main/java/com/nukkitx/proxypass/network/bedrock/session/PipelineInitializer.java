@@ -0,0 +1,19 @@
+package com.nukkitx.proxypass.network.bedrock.session;
+
+import com.nukkitx.protocol.bedrock.handler.BatchPipeline;
+
+/**
+ * Registers additional stages on the batch pipelines of every proxied session.
+ */
+@FunctionalInterface
+public interface PipelineInitializer {
+
+    /**
+     * Called once for each direction of a player session after the built-in stages have been added.
+     *
+     * @param session  proxied player session
+     * @param builder  pipeline to add stages to
+     * @param upstream true for packets sent by the client, false for packets sent by the server
+     */
+    void initialize(ProxyPlayerSession session, BatchPipeline.Builder builder, boolean upstream);
+}
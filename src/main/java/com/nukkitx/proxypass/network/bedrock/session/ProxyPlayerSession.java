@@ -1,25 +1,30 @@
 package com.nukkitx.proxypass.network.bedrock.session;
 
 import com.nukkitx.network.util.DisconnectReason;
+import com.nukkitx.protocol.bedrock.BedrockClient;
 import com.nukkitx.protocol.bedrock.BedrockClientSession;
-import com.nukkitx.protocol.bedrock.BedrockPacket;
 import com.nukkitx.protocol.bedrock.BedrockServerSession;
-import com.nukkitx.protocol.bedrock.BedrockSession;
-import com.nukkitx.protocol.bedrock.exception.PacketSerializeException;
-import com.nukkitx.protocol.bedrock.handler.BatchHandler;
+import com.nukkitx.protocol.bedrock.handler.BatchPipeline;
 import com.nukkitx.protocol.bedrock.handler.BedrockPacketHandler;
-import com.nukkitx.protocol.bedrock.packet.UnknownPacket;
+import com.nukkitx.protocol.bedrock.packet.LoginPacket;
 import com.nukkitx.protocol.bedrock.util.EncryptionUtils;
+import com.nukkitx.proxypass.Configuration;
 import com.nukkitx.proxypass.ProxyPass;
 import com.nukkitx.proxypass.network.bedrock.logging.SessionLogger;
+import com.nukkitx.proxypass.network.bedrock.testing.PacketTester;
+import com.nukkitx.proxypass.network.bedrock.util.InspectionUtils;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.extern.log4j.Log4j2;
 
+import java.net.InetSocketAddress;
 import java.security.KeyPair;
-import java.util.*;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Log4j2
 @Getter
@@ -32,6 +37,7 @@ public class ProxyPlayerSession {
     @Getter(AccessLevel.PACKAGE)
     private final KeyPair proxyKeyPair = EncryptionUtils.createKeyPair();
     private volatile boolean closed = false;
+    private final Set<ShadowSession> shadows = ConcurrentHashMap.newKeySet();
 
     public final SessionLogger logger;
 
@@ -44,6 +50,17 @@ public class ProxyPlayerSession {
             if (reason != DisconnectReason.DISCONNECTED) {
                 this.downstream.disconnect();
             }
+            this.shadows.forEach(ShadowSession::disconnect);
+            log.info("Outbound queues of {}: upstream peak {} dropped {}, downstream peak {} dropped {}",
+                    this.authData.getDisplayName(), this.upstream.getPeakQueuedPacketCount(),
+                    this.upstream.getDroppedPacketCount(), this.downstream.getPeakQueuedPacketCount(),
+                    this.downstream.getDroppedPacketCount());
+            long mismatches = this.upstream.getChecksumMismatchCount() + this.downstream.getChecksumMismatchCount();
+            if (mismatches > 0) {
+                log.warn("Received {} wrappers with an invalid checksum from {} ({} upstream, {} downstream)",
+                        mismatches, this.authData.getDisplayName(), this.upstream.getChecksumMismatchCount(),
+                        this.downstream.getChecksumMismatchCount());
+            }
         });
         this.logger = new SessionLogger(
                 proxy,
@@ -54,69 +71,119 @@ public class ProxyPlayerSession {
         logger.start();
     }
 
-    public BatchHandler getUpstreamBatchHandler() {
-        return new ProxyBatchHandler(downstream, logger, true);
+    /**
+     * Connect to the configured shadow destinations. Once logged in they receive a copy of every batch the player
+     * sends to the destination.
+     *
+     * @param login login packet sent to the destination
+     */
+    public void connectShadows(LoginPacket login) {
+        for (Configuration.Address destination : this.proxy.getConfiguration().getShadowDestinations()) {
+            InetSocketAddress address = destination.getAddress();
+            this.proxy.newShadowClient(this.upstream.getEventLoop()).whenComplete((client, throwable) -> {
+                if (throwable != null) {
+                    log.error("Unable to bind shadow client", throwable);
+                    return;
+                }
+                this.connectShadow(client, address, login);
+            });
+        }
     }
 
-    public BatchHandler getDownstreamTailHandler() {
-        return new ProxyBatchHandler(upstream, logger, false);
+    private void connectShadow(BedrockClient client, InetSocketAddress address, LoginPacket login) {
+        client.setRakNetVersion(ProxyPass.CODEC.getRaknetProtocolVersion());
+        client.connect(address).whenComplete((session, throwable) -> {
+            if (throwable != null) {
+                log.error("Unable to connect to shadow server " + address, throwable);
+                this.proxy.closeClient(client);
+                return;
+            }
+            ShadowSession shadow = new ShadowSession(client, session, this, address);
+            if (this.upstream.isClosed()) {
+                shadow.disconnect();
+                return;
+            }
+            this.shadows.add(shadow);
+            session.addDisconnectHandler(reason -> this.shadows.remove(shadow));
+            session.sendPacketImmediately(login);
+        });
     }
 
-    private class ProxyBatchHandler implements BatchHandler {
-        private final SessionLogger logger;
-        private final BedrockSession session;
-        private final boolean upstream;
+    private void mirror(ByteBuf compressed, List<ByteBuf> packets) {
+        if (this.shadows.isEmpty()) {
+            return;
+        }
 
-        private ProxyBatchHandler(BedrockSession session, SessionLogger logger, boolean upstream) {
-            this.session = session;
-            this.logger = logger;
-            this.upstream = upstream;
+        ByteBuf uncompressed = null;
+        if (compressed == null) {
+            // Packets were modified so there is no wrapper to copy. Shadow sessions compress it themselves.
+            int length = 0;
+            for (ByteBuf packet : packets) {
+                length += packet.readableBytes();
+            }
+            uncompressed = ByteBufAllocator.DEFAULT.ioBuffer(length);
+            for (ByteBuf packet : packets) {
+                uncompressed.writeBytes(packet, packet.readerIndex(), packet.readableBytes());
+            }
+        }
+        try {
+            for (ShadowSession shadow : this.shadows) {
+                shadow.mirror(compressed, uncompressed);
+            }
+        } finally {
+            if (uncompressed != null) {
+                uncompressed.release();
+            }
         }
+    }
 
-        @Override
-        public void handle(BedrockSession session, ByteBuf compressed, Collection<BedrockPacket> packets) {
-            boolean packetTesting = ProxyPlayerSession.this.proxy.getConfiguration().isPacketTesting();
-            boolean batchHandled = false;
-            List<BedrockPacket> unhandled = new ArrayList<>();
+    public BatchPipeline getUpstreamBatchHandler() {
+        BatchPipeline.Builder builder = this.createPipeline(true, UpstreamPacketHandler.class);
+        return builder.forwardTo(this.downstream)
+                .mirror(this::mirror)
+                .build();
+    }
 
-            for (BedrockPacket packet : packets) {
-                logger.logPacket(session, packet, upstream);
+    public BatchPipeline getDownstreamTailHandler() {
+        BatchPipeline.Builder builder = this.createPipeline(false, DownstreamInitialPacketHandler.class,
+                DownstreamPacketHandler.class);
+        return builder.forwardTo(this.upstream).build();
+    }
 
-                BedrockPacketHandler handler = session.getPacketHandler();
+    private BatchPipeline.Builder createPipeline(boolean upstream, Class<?>... handlerClasses) {
+        BatchPipeline.Builder builder = BatchPipeline.builder();
 
-                if (handler != null && packet.handle(handler)) {
-                    batchHandled = true;
-                } else {
-                    unhandled.add(packet);
+        if (this.logger.isLogging()) {
+            BitSet logged = new BitSet();
+            // Packet IDs are a single byte in this protocol version.
+            for (int id = 0; id < 256; id++) {
+                if (!this.proxy.isIgnoredPacket(id)) {
+                    logged.set(id);
                 }
+            }
+            builder.observe("logger", logged, true, null,
+                    (session, packet, packetBuffer) -> this.logger.logPacket(session, packet, upstream));
+        }
 
-                if (packetTesting && !(packet instanceof UnknownPacket)) {
-                    int packetId = ProxyPass.CODEC.getId(packet.getClass());
-                    ByteBuf buffer = ByteBufAllocator.DEFAULT.ioBuffer();
-                    try {
-                        ProxyPass.CODEC.tryEncode(buffer, packet, session);
-                        BedrockPacket packet2 = ProxyPass.CODEC.tryDecode(buffer, packetId, session);
-                        if (!Objects.equals(packet, packet2)) {
-                            // Something went wrong in serialization.
-                            log.warn("Packets instances not equal:\n Original  : {}\nRe-encoded : {}",
-                                    packet, packet2);
-                        }
-                    } catch (PacketSerializeException e) {
-                        //ignore
-                    } finally {
-                        buffer.release();
-                    }
+        PacketTester packetTester = this.proxy.getPacketTester();
+        if (packetTester != null) {
+            // The tester copies the packet to its own pool so it only needs the encoded form.
+            builder.observe("packet-testing", null, false, null, (session, packet, packetBuffer) -> {
+                if (packetBuffer != null) {
+                    packetTester.submit(session, this.logger, packetBuffer);
                 }
-            }
+            });
+        }
 
-            if (!batchHandled) {
-                compressed.resetReaderIndex();
-                this.session.sendWrapped(compressed, true);
-            } else if (!unhandled.isEmpty()) {
-                this.session.sendWrapped(unhandled, true);
-            }
+        builder.filter("handler", InspectionUtils.getHandledPackets(ProxyPass.CODEC, handlerClasses), (session, packet) -> {
+            BedrockPacketHandler handler = session.getPacketHandler();
+            return handler == null || !packet.handle(handler);
+        });
+
+        for (PipelineInitializer initializer : this.proxy.getPipelineInitializers()) {
+            initializer.initialize(this, builder, upstream);
         }
 
+        return builder;
     }
-
 }
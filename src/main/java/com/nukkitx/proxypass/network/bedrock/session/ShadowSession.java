@@ -0,0 +1,122 @@
+package com.nukkitx.proxypass.network.bedrock.session;
+
+import com.nukkitx.protocol.bedrock.BedrockClient;
+import com.nukkitx.protocol.bedrock.BedrockClientSession;
+import com.nukkitx.protocol.bedrock.BedrockPacket;
+import com.nukkitx.protocol.bedrock.BedrockSession;
+import com.nukkitx.protocol.bedrock.handler.BatchHandler;
+import com.nukkitx.protocol.bedrock.handler.BedrockPacketHandler;
+import com.nukkitx.protocol.bedrock.packet.DisconnectPacket;
+import com.nukkitx.protocol.bedrock.packet.ServerToClientHandshakePacket;
+import com.nukkitx.protocol.bedrock.wrapper.BedrockBatch;
+import com.nukkitx.proxypass.ProxyPass;
+import io.netty.buffer.ByteBuf;
+import io.netty.util.ReferenceCountUtil;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+import java.net.InetSocketAddress;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Downstream connection to a shadow server which receives a copy of the traffic the player sends to the destination.
+ * Everything the shadow server sends back is counted and then discarded.
+ */
+@Log4j2
+public class ShadowSession implements BatchHandler {
+    @Getter
+    private final BedrockClientSession session;
+    private final BedrockClient client;
+    private final ProxyPass proxy;
+    private final InetSocketAddress address;
+    private final LongAdder mirroredBatches = new LongAdder();
+    private final LongAdder mirroredBytes = new LongAdder();
+    private final LongAdder skippedBatches = new LongAdder();
+    private final LongAdder receivedBatches = new LongAdder();
+    private final LongAdder receivedBytes = new LongAdder();
+    private final LongAdder receivedPackets = new LongAdder();
+
+    ShadowSession(BedrockClient client, BedrockClientSession session, ProxyPlayerSession player, InetSocketAddress address) {
+        this.proxy = player.getProxy();
+        this.client = client;
+        this.session = session;
+        this.address = address;
+
+        int handshakeId = ProxyPass.CODEC.getId(ServerToClientHandshakePacket.class);
+        int disconnectId = ProxyPass.CODEC.getId(DisconnectPacket.class);
+        session.setPacketCodec(ProxyPass.CODEC);
+        this.proxy.configureSession(session);
+        session.setLogging(false);
+        session.setBatchHandler(this);
+        session.setDecodeFilter(id -> id == handshakeId || id == disconnectId);
+        session.setPacketHandler(new DownstreamInitialPacketHandler(session, player, player.getProxy()));
+        session.addDisconnectHandler(reason -> {
+            log.info("Shadow session to {} closed ({}): mirrored {} batches ({} bytes), skipped {}, received {} batches ({} bytes, {} packets)",
+                    address, reason, this.mirroredBatches.sum(), this.mirroredBytes.sum(), this.skippedBatches.sum(),
+                    this.receivedBatches.sum(), this.receivedBytes.sum(), this.receivedPackets.sum());
+            player.getProxy().closeClient(client);
+        });
+    }
+
+    /**
+     * Send a copy of a wrapper which was forwarded to the destination. The copy is compressed and encrypted on the
+     * event loop of this session, which is not the one of the player, so the primary connection does not wait for it.
+     *
+     * @param compressed compressed wrapper, or null if only the uncompressed packets are available
+     * @param packets    length-prefixed packets of the wrapper. Ignored if the compressed wrapper is available.
+     */
+    void mirror(ByteBuf compressed, ByteBuf packets) {
+        if (!this.session.isEncrypted() || this.session.isClosed()) {
+            // Mirroring starts once the shadow server has completed the login handshake.
+            this.skippedBatches.increment();
+            return;
+        }
+
+        ByteBuf buffer = compressed != null ? compressed.retainedDuplicate() : packets.retainedDuplicate();
+        this.mirroredBatches.increment();
+        this.mirroredBytes.add(buffer.readableBytes());
+        try {
+            this.session.getEventLoop().execute(() -> {
+                try {
+                    if (compressed != null) {
+                        this.session.sendWrapped(buffer, true);
+                    } else {
+                        this.session.sendWrappedEncoded(Collections.singletonList(buffer), true);
+                    }
+                } finally {
+                    buffer.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Event loop is shutting down
+            buffer.release();
+        }
+    }
+
+    public void disconnect() {
+        if (!this.session.isClosed()) {
+            this.session.disconnect();
+        }
+        this.proxy.closeClient(this.client);
+    }
+
+    @Override
+    public void handle(BedrockSession session, ByteBuf compressed, Collection<BedrockPacket> packets) {
+        this.receivedBatches.increment();
+        this.receivedBytes.add(packets instanceof BedrockBatch ? ((BedrockBatch) packets).getUncompressedSize() : 0);
+
+        BedrockPacketHandler handler = session.getPacketHandler();
+        for (BedrockPacket packet : packets) {
+            this.receivedPackets.increment();
+            if (packet instanceof DisconnectPacket) {
+                log.info("Shadow server {} disconnected player: {}", this.address, ((DisconnectPacket) packet).getKickMessage());
+            }
+            if (handler == null || !packet.handle(handler)) {
+                ReferenceCountUtil.release(packet);
+            }
+        }
+    }
+}
@@ -12,9 +12,11 @@ import com.nimbusds.jose.shaded.json.JSONObject;
 import com.nimbusds.jwt.SignedJWT;
 import com.nukkitx.protocol.bedrock.BedrockClient;
 import com.nukkitx.protocol.bedrock.BedrockServerSession;
+import com.nukkitx.protocol.bedrock.handler.BatchPipeline;
 import com.nukkitx.protocol.bedrock.handler.BedrockPacketHandler;
 import com.nukkitx.protocol.bedrock.packet.LoginPacket;
 import com.nukkitx.protocol.bedrock.util.EncryptionUtils;
+import com.nukkitx.proxypass.Configuration;
 import com.nukkitx.proxypass.ProxyPass;
 import com.nukkitx.proxypass.network.bedrock.util.ForgeryUtils;
 import io.netty.util.AsciiString;
@@ -113,11 +115,23 @@ public class UpstreamPacketHandler implements BedrockPacketHandler {
 
     private void initializeProxySession() {
         log.debug("Initializing proxy session");
-        BedrockClient client = proxy.newClient();
+        // Run the downstream connection on the same event loop so forwarding never has to switch threads.
+        proxy.newClient(this.session.getEventLoop()).whenComplete((client, throwable) -> {
+            if (throwable != null) {
+                log.error("Unable to bind downstream client", throwable);
+                this.session.disconnect("disconnectionScreen.internalError.cantConnect");
+                return;
+            }
+            this.connectDownstream(client);
+        });
+    }
+
+    private void connectDownstream(BedrockClient client) {
         client.setRakNetVersion(ProxyPass.CODEC.getRaknetProtocolVersion());
         client.connect(proxy.getTargetAddress()).whenComplete((downstream, throwable) -> {
             if (throwable != null) {
                 log.error("Unable to connect to downstream server " + proxy.getTargetAddress(), throwable);
+                this.proxy.closeClient(client);
                 return;
             }
             downstream.setPacketCodec(ProxyPass.CODEC);
@@ -149,12 +163,25 @@ public class UpstreamPacketHandler implements BedrockPacketHandler {
             login.setVersion(LoginPacket.Version.VANILLA);
 
             downstream.sendPacketImmediately(login);
-
-            this.session.setBatchHandler(proxySession.getUpstreamBatchHandler());
-            downstream.setBatchHandler(proxySession.getDownstreamTailHandler());
+            proxySession.connectShadows(login);
+
+            BatchPipeline upstreamPipeline = proxySession.getUpstreamBatchHandler();
+            BatchPipeline downstreamPipeline = proxySession.getDownstreamTailHandler();
+            this.session.setBatchHandler(upstreamPipeline);
+            downstream.setBatchHandler(downstreamPipeline);
+            Configuration configuration = this.proxy.getConfiguration();
+            if (configuration.isRawForwarding()) {
+                this.session.setDecodeFilter(upstreamPipeline.getDecodeFilter());
+                downstream.setDecodeFilter(downstreamPipeline.getDecodeFilter());
+            }
+            this.proxy.configureSession(this.session);
+            this.proxy.configureSession(downstream);
             downstream.setLogging(true);
             downstream.setPacketHandler(new DownstreamInitialPacketHandler(downstream, proxySession, this.proxy));
-            downstream.addDisconnectHandler(disconnectReason -> this.session.disconnect());
+            downstream.addDisconnectHandler(disconnectReason -> {
+                this.session.disconnect();
+                this.proxy.closeClient(client);
+            });
 
             //SkinUtils.saveSkin(proxySession, this.skinData);
         });
@@ -0,0 +1,187 @@
+package com.nukkitx.proxypass.network.bedrock.testing;
+
+import com.nukkitx.protocol.bedrock.BedrockPacket;
+import com.nukkitx.protocol.bedrock.BedrockPacketCodec;
+import com.nukkitx.protocol.bedrock.BedrockPacketDefinition;
+import com.nukkitx.protocol.bedrock.BedrockPacketType;
+import com.nukkitx.protocol.bedrock.BedrockSession;
+import com.nukkitx.protocol.bedrock.exception.PacketSerializeException;
+import com.nukkitx.proxypass.network.bedrock.logging.SessionLogger;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decodes and re-encodes received packets on a separate worker pool and checks that the result matches the original
+ * bytes exactly. Packets are sampled per packet ID and dropped when the pool cannot keep up.
+ */
+@Log4j2
+public class PacketTester {
+    private final BedrockPacketCodec codec;
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService reporter;
+    private final double[] sampleRates = new double[256];
+    private final BedrockPacketType[] packetTypes = new BedrockPacketType[256];
+    private final int dumpLimit;
+    private final Map<BedrockPacketType, Statistics> statistics = new EnumMap<>(BedrockPacketType.class);
+    private final LongAdder dropped = new LongAdder();
+
+    public PacketTester(BedrockPacketCodec codec, int threads, int queueSize, double defaultSampleRate, int dumpLimit,
+                        int reportInterval) {
+        this.codec = codec;
+        this.dumpLimit = dumpLimit;
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), new DefaultThreadFactory("Packet Testing", true),
+                new ThreadPoolExecutor.AbortPolicy());
+        Arrays.fill(this.sampleRates, defaultSampleRate);
+        for (BedrockPacketType type : BedrockPacketType.values()) {
+            this.statistics.put(type, new Statistics());
+        }
+        for (int id = 0; id < this.packetTypes.length; id++) {
+            BedrockPacketDefinition<?> definition = codec.getPacketDefinition(id);
+            this.packetTypes[id] = definition == null ? BedrockPacketType.UNKNOWN : definition.getFactory().get().getPacketType();
+        }
+
+        if (reportInterval > 0) {
+            this.reporter = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("Packet Testing Report", true));
+            this.reporter.scheduleAtFixedRate(this::report, reportInterval, reportInterval, TimeUnit.SECONDS);
+        } else {
+            this.reporter = null;
+        }
+    }
+
+    public void setSampleRate(int packetId, double sampleRate) {
+        this.sampleRates[packetId] = sampleRate;
+    }
+
+    /**
+     * Queue a packet to be tested. The buffer is copied so it only has to be valid for the duration of this call.
+     *
+     * @param session session the packet was received on
+     * @param logger  logger of the session mismatching payloads are saved to
+     * @param buffer  encoded packet starting at the packet ID
+     */
+    public void submit(BedrockSession session, SessionLogger logger, ByteBuf buffer) {
+        int packetId = buffer.getUnsignedByte(buffer.readerIndex());
+        double sampleRate = this.sampleRates[packetId];
+        if (sampleRate <= 0 || (sampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= sampleRate)) {
+            return;
+        }
+        if (this.packetTypes[packetId] == BedrockPacketType.UNKNOWN) {
+            // Unknown packets are passed through as is so there is nothing to test.
+            return;
+        }
+
+        ByteBuf copy = buffer.copy();
+        try {
+            this.executor.execute(() -> {
+                try {
+                    this.test(session, logger, copy);
+                } finally {
+                    copy.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            copy.release();
+            this.dropped.increment();
+        }
+    }
+
+    private void test(BedrockSession session, SessionLogger logger, ByteBuf buffer) {
+        int packetId = buffer.readUnsignedByte();
+        ByteBuf original = buffer.slice();
+        Statistics statistics = this.statistics.get(this.packetTypes[packetId]);
+
+        ByteBuf encoded = ByteBufAllocator.DEFAULT.ioBuffer(original.readableBytes());
+        try {
+            long start = System.nanoTime();
+            BedrockPacket packet = this.codec.tryDecode(buffer, packetId, session);
+            long decoded = System.nanoTime();
+            this.codec.tryEncode(encoded, packet, session);
+            long end = System.nanoTime();
+
+            statistics.tested.increment();
+            statistics.decodeNanos.add(decoded - start);
+            statistics.encodeNanos.add(end - decoded);
+            statistics.originalBytes.add(original.readableBytes());
+            statistics.encodedBytes.add(encoded.readableBytes());
+
+            if (!ByteBufUtil.equals(original, encoded)) {
+                statistics.mismatches.increment();
+                this.saveMismatch(logger, packetId, original, encoded);
+            }
+        } catch (PacketSerializeException e) {
+            statistics.failures.increment();
+            log.debug("Unable to test packet " + packetId, e);
+            this.saveMismatch(logger, packetId, original, encoded);
+        } finally {
+            encoded.release();
+        }
+    }
+
+    private void saveMismatch(SessionLogger logger, int packetId, ByteBuf original, ByteBuf encoded) {
+        int index = logger.nextMismatchIndex();
+        if (index <= this.dumpLimit) {
+            String name = index + "-" + packetId;
+            log.warn("Packet {} did not survive a round trip, saved as {}", packetId, name);
+            logger.saveMismatch(name, original, encoded);
+        }
+    }
+
+    /**
+     * Log statistics for every packet type which has been tested.
+     */
+    public void report() {
+        StringBuilder builder = new StringBuilder("Packet testing statistics (dropped ")
+                .append(this.dropped.sum()).append(')');
+        for (Map.Entry<BedrockPacketType, Statistics> entry : this.statistics.entrySet()) {
+            Statistics statistics = entry.getValue();
+            long tested = statistics.tested.sum();
+            long failures = statistics.failures.sum();
+            if (tested == 0 && failures == 0) {
+                continue;
+            }
+            long divisor = Math.max(tested, 1);
+            builder.append(String.format("%n%-28s tested: %9d mismatched: %7d failed: %7d decode: %7.1fus encode: %7.1fus size: %8d -> %8d",
+                    entry.getKey(), tested, statistics.mismatches.sum(), failures,
+                    statistics.decodeNanos.sum() / divisor / 1000D, statistics.encodeNanos.sum() / divisor / 1000D,
+                    statistics.originalBytes.sum() / divisor, statistics.encodedBytes.sum() / divisor));
+        }
+        log.info(builder.toString());
+    }
+
+    public long getDroppedCount() {
+        return this.dropped.sum();
+    }
+
+    public void shutdown() {
+        if (this.reporter != null) {
+            this.reporter.shutdown();
+        }
+        this.executor.shutdown();
+        try {
+            this.executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            // ignore
+        }
+        this.report();
+    }
+
+    private static class Statistics {
+        private final LongAdder tested = new LongAdder();
+        private final LongAdder mismatches = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder decodeNanos = new LongAdder();
+        private final LongAdder encodeNanos = new LongAdder();
+        private final LongAdder originalBytes = new LongAdder();
+        private final LongAdder encodedBytes = new LongAdder();
+    }
+}
@@ -0,0 +1,12 @@
+package com.nukkitx.proxypass.network.bedrock.util;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public enum CipherType {
+    @JsonProperty("auto")
+    AUTO,
+    @JsonProperty("native")
+    NATIVE,
+    @JsonProperty("jce")
+    JCE
+}
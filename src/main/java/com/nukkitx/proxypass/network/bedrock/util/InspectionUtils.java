@@ -0,0 +1,26 @@
+package com.nukkitx.proxypass.network.bedrock.util;
+
+import com.nukkitx.protocol.bedrock.BedrockPacketCodec;
+import com.nukkitx.protocol.bedrock.handler.BedrockPacketHandler;
+import lombok.experimental.UtilityClass;
+
+import java.util.BitSet;
+
+@UtilityClass
+public class InspectionUtils {
+
+    /**
+     * Collect the IDs of every packet the given handlers override a {@code handle} method for.
+     *
+     * @param codec          codec used to resolve packet IDs
+     * @param handlerClasses packet handler implementations
+     * @return packet IDs handled by at least one of the handlers
+     */
+    public static BitSet getHandledPackets(BedrockPacketCodec codec, Class<?>... handlerClasses) {
+        BitSet handled = new BitSet();
+        for (Class<?> handlerClass : handlerClasses) {
+            handled.or(codec.getHandledPackets(handlerClass.asSubclass(BedrockPacketHandler.class)));
+        }
+        return handled;
+    }
+}